@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2020 Timo Engel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.tengel.planisphere;
+
+import android.os.Debug;
+import android.util.Log;
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import static org.junit.Assert.*;
+
+/**
+ * Compares the number of allocations per Engine update when all chart
+ * objects are recreated (the behaviour before the incremental update) with
+ * the incremental update, which only recalculates the coordinates. Also
+ * compares the time of the FastMath approximations with java.lang.Math.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EngineUpdateBenchmark
+{
+    private static final int ITERATIONS = 20;
+    private static final int MATH_CALLS = 1000000;
+
+    private static class Result
+    {
+        long allocCount;
+        long allocSize;
+        long timeNs;
+    }
+
+    private Result run(Engine engine, boolean recreateObjects)
+    {
+        Settings settings = Settings.instance();
+        settings.setCurrentTime(new GregorianCalendar());
+        engine.updateNow(); // warm up, creates the objects
+
+        Result r = new Result();
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i)
+        {
+            settings.getCurrentTime().add(Calendar.MINUTE, 1);
+            if (recreateObjects)
+            {
+                engine.invalidate();
+            }
+            engine.updateNow();
+        }
+        r.timeNs = (System.nanoTime() - start) / ITERATIONS;
+        Debug.stopAllocCounting();
+        r.allocCount = Debug.getThreadAllocCount() / ITERATIONS;
+        r.allocSize = Debug.getThreadAllocSize() / ITERATIONS;
+        return r;
+    }
+
+    private static double timeMath(int variant)
+    {
+        double[] sc = new double[2];
+        double sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < MATH_CALLS; ++i)
+        {
+            double x = i * 0.0173;
+            switch (variant)
+            {
+                case 0:  sum += Math.sin(x) + Math.cos(x);               break;
+                case 1:  FastMath.sinCos(x, sc, 0); sum += sc[0] + sc[1]; break;
+                case 2:  sum += Math.atan2(x - 3e4, x);                  break;
+                default: sum += FastMath.atan2(x - 3e4, x);              break;
+            }
+        }
+        long ns = System.nanoTime() - start;
+        assertFalse(Double.isNaN(sum));
+        return (double) ns / MATH_CALLS;
+    }
+
+    /**
+     * Logs the time per call of java.lang.Math and FastMath, the first round
+     * warms up the JIT.
+     */
+    @Test
+    public void fastMath()
+    {
+        for (int round = 0; round < 2; ++round)
+        {
+            double sinCos = timeMath(0);
+            double fastSinCos = timeMath(1);
+            double atan2 = timeMath(2);
+            double fastAtan2 = timeMath(3);
+            if (round == 1)
+            {
+                Log.i(MainActivity.LOG_TAG, String.format(
+                    "sin, cos: Math %.1f ns, FastMath %.1f ns; " +
+                    "atan2: Math %.1f ns, FastMath %.1f ns",
+                    sinCos, fastSinCos, atan2, fastAtan2));
+            }
+        }
+    }
+
+    @Test
+    public void allocationsPerUpdate()
+    {
+        ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class);
+        try
+        {
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>()
+            {
+                @Override
+                public void perform(MainActivity activity)
+                {
+                    DataLoader loader = new DataLoader(activity.getResources(), null);
+                    try
+                    {
+                        for (DataLoader.Dataset dataset : DataLoader.Dataset.values())
+                        {
+                            loader.load(dataset);
+                        }
+                    }
+                    catch (IOException e)
+                    {
+                        fail(e.toString());
+                    }
+                    Engine engine = new Engine(activity, Settings.instance());
+                    engine.setCatalog(Catalog.instance());
+                    engine.setConstellationDb(ConstellationDb.instance());
+                    engine.setLocation(51.31, 9.49, false);
+
+                    Result full = run(engine, true);
+                    Result incremental = run(engine, false);
+                    Log.i(MainActivity.LOG_TAG, String.format(
+                        "update() recreate: %d allocs, %d bytes, %.2f ms; " +
+                        "incremental: %d allocs, %d bytes, %.2f ms",
+                        full.allocCount, full.allocSize, full.timeNs / 1e6,
+                        incremental.allocCount, incremental.allocSize,
+                        incremental.timeNs / 1e6));
+                    assertTrue(incremental.allocCount < full.allocCount);
+                    assertTrue(incremental.allocSize < full.allocSize);
+                }
+            });
+        }
+        finally
+        {
+            scenario.close();
+        }
+    }
+}
@@ -67,6 +67,9 @@ interface ObjectPositionCalculator
 class Astro
 {
     static final double AU = 149597870.7; // AU in km
+    // inclination of the ecliptic for J2000
+    private static final double SIN_EPSILON = Math.sin(Math.toRadians(23.4392916667));
+    private static final double COS_EPSILON = Math.cos(Math.toRadians(23.4392916667));
 
     /**
      * Return the sine of x(measured in degrees).
@@ -235,7 +238,15 @@ class Astro
      */
     static double julian_century(Calendar c)
     {
-        return (julian_date(c) - 2451545.0) / 36525;
+        return julian_century(julian_date(c));
+    }
+
+    /**
+     * Return centuries since J2000.0 from a julian date.
+     */
+    static double julian_century(double jd)
+    {
+        return (jd - 2451545.0) / 36525;
     }
 
     /**
@@ -255,6 +266,20 @@ class Astro
         return mod(theta, 24);
     }
 
+    /**
+     * Return the mean sidereal time of Greenwich in hours.
+     *
+     * :param float jd: Julian date
+     * :rtype: float
+     */
+    static double sidereal_time(double jd)
+    {
+        double jd0 = Math.floor(jd - 0.5) + 0.5; // 0h UT
+        double theta = (6.664520 + 0.0657098244 * (jd0 - 2451544.5) +
+                (1.0027379093 * (jd - jd0) * 24));
+        return mod(theta, 24);
+    }
+
     /**
      * Convert geocentric, equatorial coordinates (right ascension, declination)
      * to horizontal coordinates (azimuth, elevation).
@@ -268,36 +293,242 @@ class Astro
      */
     static double[] geoEqua2geoHori(double t, double phi, double delta)
     {
-        double x, y, z, r, p, beta, lambda_helper, lambda;
-        x = sin(phi) * cos(delta) * cos(t) - cos(phi) * sin(delta);
-        y = cos(delta) * sin(t);
-        z = sin(phi) * sin(delta) + cos(phi) * cos(delta) * cos(t);
-        r = Math.sqrt(Math.pow(x, 2) + Math.pow(y, 2) + Math.pow(z, 2));
-        p = Math.sqrt(Math.pow(x, 2) + Math.pow(y, 2));
-        beta = atan(z / p);
-        lambda_helper = 2 * atan(y / (Math.abs(x) + Math.sqrt(Math.pow(x, 2) +
-                                                              Math.pow(y, 2))));
-        if (x == 0 && y == 0)
+        double[] azEle = new double[2];
+        geoEqua2geoHori(t, phi, delta, azEle);
+        return azEle;
+    }
+
+    /**
+     * Same as geoEqua2geoHori(t, phi, delta), but writes the horizontal
+     * coordinates (azimuth, elevation) into the passed array instead of
+     * allocating a new one.
+     */
+    static void geoEqua2geoHori(double t, double phi, double delta, double[] azEle)
+    {
+        double phiRad = Math.toRadians(phi);
+        geoEqua2geoHoriRad(Math.sin(phiRad), Math.cos(phiRad), Math.toRadians(t),
+                           Math.toRadians(delta), azEle, 0);
+    }
+
+    /**
+     * Convert count points from geocentric, equatorial coordinates to
+     * horizontal coordinates for one observer. The trigonometric functions
+     * of the latitude are only calculated once.
+     *
+     * :param double localSiderealTime: Local sidereal time (h).
+     * :param double phi: Geographical latitude of observer. (degree)
+     * :param double[] ra: Right ascension of the points (h).
+     * :param double[] dec: Declination of the points (degree).
+     * :param int count: Number of points.
+     * :param double[] azEle: Receives azimuth and elevation (degree) of point i
+     *                        at index 2 * i and 2 * i + 1.
+     */
+    static void geoEqua2geoHori(double localSiderealTime, double phi,
+                                double[] ra, double[] dec, int count, double[] azEle)
+    {
+        geoEqua2geoHori(localSiderealTime, phi, ra, dec, 0, count, azEle);
+    }
+
+    /**
+     * Same as geoEqua2geoHori(localSiderealTime, phi, ra, dec, count, azEle)
+     * for the count points starting at index offset.
+     */
+    static void geoEqua2geoHori(double localSiderealTime, double phi, double[] ra,
+                                double[] dec, int offset, int count, double[] azEle)
+    {
+        geoEqua2geoHori(localSiderealTime, phi, ra, dec, offset, count, azEle, false, null);
+    }
+
+    /**
+     * Same as geoEqua2geoHori(localSiderealTime, phi, ra, dec, offset, count,
+     * azEle), with the approximations of FastMath if isFast is set.
+     *
+     * :param double[] scratch: 4 elements, receives the sine and cosine of
+     *                          FastMath, only used if isFast is set.
+     */
+    static void geoEqua2geoHori(double localSiderealTime, double phi, double[] ra,
+                                double[] dec, int offset, int count, double[] azEle,
+                                boolean isFast, double[] scratch)
+    {
+        double phiRad = Math.toRadians(phi);
+        double sinPhi = Math.sin(phiRad);
+        double cosPhi = Math.cos(phiRad);
+        double lstRad = Math.toRadians(localSiderealTime * 15.0);
+        for (int i = offset; i < offset + count; ++i)
         {
-            lambda = 0;
+            double t = lstRad - Math.toRadians(ra[i] * 15.0);
+            double delta = Math.toRadians(dec[i]);
+            if (isFast)
+            {
+                FastMath.sinCos(t, scratch, 0);
+                FastMath.sinCos(delta, scratch, 2);
+                geoEqua2geoHori(sinPhi, cosPhi, scratch[0], scratch[1], scratch[2],
+                                scratch[3], azEle, i * 2, true);
+            }
+            else
+            {
+                geoEqua2geoHori(sinPhi, cosPhi, Math.sin(t), Math.cos(t), Math.sin(delta),
+                                Math.cos(delta), azEle, i * 2, false);
+            }
         }
-        else if (x >= 0 && y >= 0)
+    }
+
+    /**
+     * Calculate the cartesian unit vector of geocentric, equatorial
+     * coordinates. The x axis points to the vernal equinox, the z axis to the
+     * celestial north pole.
+     *
+     * :param double ra: Right ascension (h).
+     * :param double dec: Declination (degree).
+     * :param double[] xyz: Receives x, y, z at index offset.
+     */
+    static void equatorialUnitVector(double ra, double dec, double[] xyz, int offset)
+    {
+        double raRad = Math.toRadians(ra * 15.0);
+        double decRad = Math.toRadians(dec);
+        double cosDec = Math.cos(decRad);
+        xyz[offset] = cosDec * Math.cos(raRad);
+        xyz[offset + 1] = cosDec * Math.sin(raRad);
+        xyz[offset + 2] = Math.sin(decRad);
+    }
+
+    /**
+     * Calculate the 3x3 rotation matrix (row major) from equatorial unit
+     * vectors to the horizontal system of geoEqua2geoHori(), where x points
+     * to the south and z to the zenith.
+     *
+     * :param double localSiderealTime: Local sidereal time (h).
+     * :param double phi: Geographical latitude of observer. (degree)
+     * :param double[] m: Receives the 9 matrix elements.
+     */
+    static void equa2horiMatrix(double localSiderealTime, double phi, double[] m)
+    {
+        double lstRad = Math.toRadians(localSiderealTime * 15.0);
+        double phiRad = Math.toRadians(phi);
+        double sinL = Math.sin(lstRad);
+        double cosL = Math.cos(lstRad);
+        double sinPhi = Math.sin(phiRad);
+        double cosPhi = Math.cos(phiRad);
+        m[0] = sinPhi * cosL; m[1] = sinPhi * sinL; m[2] = -cosPhi;
+        m[3] = sinL;          m[4] = -cosL;         m[5] = 0;
+        m[6] = cosPhi * cosL; m[7] = cosPhi * sinL; m[8] = sinPhi;
+    }
+
+    /**
+     * Rotate the equatorial unit vector at xyz[offset] with the matrix of
+     * equa2horiMatrix() and write azimuth and elevation (degree) into azEle.
+     */
+    static void unitVector2geoHori(double[] m, double[] xyz, int offset, double[] azEle)
+    {
+        unitVector2geoHori(m, xyz, offset, azEle, false);
+    }
+
+    /**
+     * Same as unitVector2geoHori(m, xyz, offset, azEle), with the
+     * approximations of FastMath if isFast is set.
+     */
+    static void unitVector2geoHori(double[] m, double[] xyz, int offset, double[] azEle,
+                                   boolean isFast)
+    {
+        double ex = xyz[offset];
+        double ey = xyz[offset + 1];
+        double ez = xyz[offset + 2];
+        double x = m[0] * ex + m[1] * ey + m[2] * ez;
+        double y = m[3] * ex + m[4] * ey + m[5] * ez;
+        double z = m[6] * ex + m[7] * ey + m[8] * ez;
+        cart2geoHori(x, y, z, azEle, 0, isFast);
+    }
+
+    /**
+     * Writes azimuth (0..360) and elevation in degree of the horizontal,
+     * cartesian coordinates into azEle[offset] and azEle[offset + 1].
+     */
+    private static void cart2geoHori(double x, double y, double z, double[] azEle,
+                                     int offset, boolean isFast)
+    {
+        double p = Math.sqrt(x * x + y * y);
+        double lambda;
+        if (isFast)
+        {
+            lambda = Math.toDegrees(FastMath.atan2(y, x));
+            azEle[offset + 1] = Math.toDegrees(FastMath.atan2(z, p));
+        }
+        else
         {
-            lambda = lambda_helper;
+            lambda = Math.toDegrees(Math.atan2(y, x));
+            azEle[offset + 1] = Math.toDegrees(Math.atan2(z, p));
         }
-        else if (x >= 0 && y < 0)
+        if (lambda < 0)
         {
-            lambda = 360 + lambda_helper;
+            lambda += 360;
         }
-        else if (x < 0)
+        azEle[offset] = lambda;
+    }
+
+    /**
+     * Calculate a spherical cap that contains count points starting at index
+     * offset. The center is the normalized mean of the unit vectors of the
+     * points, the radius the largest angle between the center and a point.
+     *
+     * :param double[] ra: Right ascension of the points (h).
+     * :param double[] dec: Declination of the points (degree).
+     * :param double[] center: Receives the unit vector of the center at
+     *                         index centerOffset.
+     * :return: Sine of the radius, 1 if the radius is 90 degree or more.
+     * :rtype: float
+     */
+    static double boundingCap(double[] ra, double[] dec, int offset, int count,
+                              double[] center, int centerOffset)
+    {
+        double[] xyz = new double[3 * count];
+        double x = 0, y = 0, z = 0;
+        for (int i = 0; i < count; ++i)
         {
-            lambda = 180 - lambda_helper;
+            equatorialUnitVector(ra[offset + i], dec[offset + i], xyz, i * 3);
+            x += xyz[i * 3];
+            y += xyz[i * 3 + 1];
+            z += xyz[i * 3 + 2];
         }
-        else
+        double length = Math.sqrt(x * x + y * y + z * z);
+        x /= length;
+        y /= length;
+        z /= length;
+        double cosRadius = 1;
+        for (int i = 0; i < count; ++i)
         {
-            throw new RuntimeException("should not happen");
+            cosRadius = Math.min(cosRadius, x * xyz[i * 3] + y * xyz[i * 3 + 1] +
+                                            z * xyz[i * 3 + 2]);
         }
-        return new double[]{lambda, beta};
+        center[centerOffset] = x;
+        center[centerOffset + 1] = y;
+        center[centerOffset + 2] = z;
+        return cosRadius > 0 ? Math.sqrt(1 - cosRadius * cosRadius) : 1;
+    }
+
+    /**
+     * Conversion of geoEqua2geoHori() with the sine and cosine of the
+     * latitude, hour angle t and declination delta in radians. Writes azimuth
+     * and elevation in degree into azEle[offset] and azEle[offset + 1].
+     */
+    static void geoEqua2geoHoriRad(double sinPhi, double cosPhi, double t, double delta,
+                                   double[] azEle, int offset)
+    {
+        geoEqua2geoHori(sinPhi, cosPhi, Math.sin(t), Math.cos(t), Math.sin(delta),
+                        Math.cos(delta), azEle, offset, false);
+    }
+
+    /**
+     * Conversion of geoEqua2geoHori() with the sine and cosine of the
+     * latitude, hour angle t and declination delta.
+     */
+    private static void geoEqua2geoHori(double sinPhi, double cosPhi, double sinT,
+                                        double cosT, double sinDelta, double cosDelta,
+                                        double[] azEle, int offset, boolean isFast)
+    {
+        double x = sinPhi * cosDelta * cosT - cosPhi * sinDelta;
+        double y = cosDelta * sinT;
+        double z = sinPhi * sinDelta + cosPhi * cosDelta * cosT;
+        cart2geoHori(x, y, z, azEle, offset, isFast);
     }
 
     /**
@@ -316,20 +547,13 @@ class Astro
      */
     static double[] orbit2helioEcl(double u, double Omega, double i)
     {
-        double b, l, lo1, lo2;
-        b = asin(sin(u) * sin(i));
-        l = acos(cos(u) / cos(b)) + Omega;
-        lo1 = acos(cos(u) / cos(b));
-        lo2 = asin((sin(u)*cos(i))/cos(b));
-        if (lo2 < 0)
-        {
-            l = 360.0 - (lo1 - Omega);
-        }
-        if (l > 360)
-        {
-            l = l - 360;
-        }
-        return new double[]{l, b};
+        double uRad = Math.toRadians(u);
+        double iRad = Math.toRadians(i);
+        double sinU = Math.sin(uRad);
+        double b = Math.toDegrees(Math.asin(sinU * Math.sin(iRad)));
+        // cos(l - Omega) * cos(b) = cos(u), sin(l - Omega) * cos(b) = sin(u) * cos(i)
+        double l = Math.toDegrees(Math.atan2(sinU * Math.cos(iRad), Math.cos(uRad))) + Omega;
+        return new double[]{mod(l, 360), b};
     }
 
     /**
@@ -349,11 +573,9 @@ class Astro
     static double[] helioEcl2geoEcl(double eLon, double eLat, double eDist,
                                     double pLon, double  pLat, double pDist)
     {
-        double x, y, z;
-        x = pDist * cos(pLat) * cos(pLon) - eDist * cos(eLat) * cos(eLon);
-        y = pDist * cos(pLat) * sin(pLon) - eDist * cos(eLat) * sin(eLon);
-        z = pDist * sin(pLat)             - eDist * sin(eLat);
-        return cart2sphe(x, y, z);
+        double[] p = sphe2cart(pLat, pLon, pDist);
+        double[] e = sphe2cart(eLat, eLon, eDist);
+        return cart2sphe(p[0] - e[0], p[1] - e[1], p[2] - e[2]);
     }
 
     /**
@@ -372,13 +594,9 @@ class Astro
     static double[] geoEcl2helioEcl(double eLon, double eLat, double eDist,
                                     double pLon, double pLat, double pDist)
     {
-        double x, y, z;
-        double[] pxyz;
-        pxyz = sphe2cart(pLat, pLon, pDist);
-        x = pxyz[0] + eDist * cos(eLat) * cos(eLon);
-        y = pxyz[1] + eDist * cos(eLat) * sin(eLon);
-        z = pxyz[2] + eDist * sin(eLat);
-        return cart2sphe(x, y, z);
+        double[] p = sphe2cart(pLat, pLon, pDist);
+        double[] e = sphe2cart(eLat, eLon, eDist);
+        return cart2sphe(p[0] + e[0], p[1] + e[1], p[2] + e[2]);
     }
 
     /**
@@ -389,11 +607,11 @@ class Astro
      */
     static double[] sphe2cart(double beta, double lamda, double r)
     {
-        double x, y, z;
-        x = r * cos(beta) * cos(lamda);
-        y = r * cos(beta) * sin(lamda);
-        z = r * sin(beta);
-        return new double[]{x, y, z};
+        double betaRad = Math.toRadians(beta);
+        double lamdaRad = Math.toRadians(lamda);
+        double rCosBeta = r * Math.cos(betaRad);
+        return new double[]{rCosBeta * Math.cos(lamdaRad), rCosBeta * Math.sin(lamdaRad),
+                            r * Math.sin(betaRad)};
     }
 
     /**
@@ -404,48 +622,13 @@ class Astro
      */
     static double[] cart2sphe(double x, double y, double z)
     {
-        double r = 0, p = 0, beta = 0, phi = 0, lambda;
-        r = Math.sqrt(Math.pow(x, 2) + Math.pow(y, 2) + Math.pow(z, 2));
-        p = Math.sqrt(Math.pow(x, 2) + Math.pow(y, 2));
-        if (p == 0)
-        {
-            if (z > 0)
-            {
-                beta = 90;
-            }
-            else if (z == 0)
-            {
-                beta = 0;
-            }
-            else if (z < 0)
-            {
-                beta = -90;
-            }
-        }
-        else
-        {
-            beta = atan(z / p);
-        }
-        phi = 2 * atan(y / (Math.abs(x) + Math.sqrt(Math.pow(x, 2) +
-                                                    Math.pow(y, 2))));
-        if (x == 0 && y == 0)
+        double p = Math.sqrt(x * x + y * y);
+        double r = Math.sqrt(p * p + z * z);
+        double beta = Math.toDegrees(Math.atan2(z, p));
+        double lambda = Math.toDegrees(Math.atan2(y, x));
+        if (lambda < 0)
         {
-            lambda = 0;
-        }
-        else if (x >= 0 && y >= 0)
-        {
-            lambda = phi;
-        }
-        else if (x >= 0 && y < 0)
-        {
-            lambda = 360 + phi;
-        }
-        else if (x < 0)
-        {
-            lambda = 180 - phi;
-        }
-        else {
-            throw new RuntimeException("should not happen");
+            lambda += 360;
         }
         return new double[]{beta, lambda, r};
     }
@@ -464,11 +647,14 @@ class Astro
      */
     static double[] geoEcl2geoEqua(double beta, double lamb)
     {
-        double epsilon = 23.4392916667;
-        double x, y, z;
-        x = cos(beta) * cos(lamb);
-        y = cos(epsilon) * cos(beta) * sin(lamb) - sin(epsilon) * sin(beta);
-        z = sin(epsilon) * cos(beta) * sin(lamb) + cos(epsilon) * sin(beta);
+        double betaRad = Math.toRadians(beta);
+        double lambRad = Math.toRadians(lamb);
+        double sinBeta = Math.sin(betaRad);
+        double cosBeta = Math.cos(betaRad);
+        double x = cosBeta * Math.cos(lambRad);
+        double yEcl = cosBeta * Math.sin(lambRad);
+        double y = COS_EPSILON * yEcl - SIN_EPSILON * sinBeta;
+        double z = SIN_EPSILON * yEcl + COS_EPSILON * sinBeta;
         double[] polar = cart2sphe(x, y, z);
         return new double[]{polar[1], polar[0]};
     }
@@ -488,7 +674,8 @@ class Astro
         n = jd - 2451545.0;
         L = (280.460 + 0.9856474 * n) % 360;
         g = (357.528 + 0.9856003 * n) % 360;
-        lamb = L + 1.915 * sin(g) + 0.020 * sin(2 * g); // geoc., ecliptic lon
+        g = Math.toRadians(g);
+        lamb = L + 1.915 * Math.sin(g) + 0.020 * Math.sin(2 * g); // geoc., ecliptic lon
         return new double[]{0, lamb, 1};
     }
 
@@ -515,43 +702,46 @@ class Astro
      */
     static double[] calcPositionMoon(double jd)
     {
-        double T, L0, l, l_, F, D, L1, B, lamb, beta, Delta_km, Delta;
+        double T, T2, L0, l, l_, F, D, L1, B, lamb, beta, Delta_km, Delta;
         T  = (jd - 2451545.0) / 36525;
-        L0 = (218.31665 + 481267.88134 * T - 0.001327 * Math.pow(T, 2)) % 360.0;
-        l  = (134.96341 + 477198.86763 * T + 0.008997 * Math.pow(T, 2)) % 360.0;
-        l_ = (357.52911 + 35999.05029 * T + 0.000154 * Math.pow(T, 2)) % 360.0;
-        F  = (93.27210 + 483202.01753 * T - 0.003403 * Math.pow(T, 2)) % 360.0;
-        D  = (297.85020 + 445267.11152 * T - 0.001630 * Math.pow(T, 2)) % 360.0;
-        L1 = (22640 * sin(l) + 769 * sin(2 * l) + 36 * sin(3 * l)
-              -4586 * sin(l - 2 * D)
-              +2370 * sin(2 * D)
-              -668  * sin(l_)
-              -412  * sin(2 * F)
-              -212  * sin(2 * l - 2 * D)
-              -206  * sin(l + l_ - 2 * D)
-              +192  * sin(l + 2 * D)
-              -165  * sin(l_ - 2 * D)
-              +148  * sin(l - l_)
-              -125  * sin(D)
-              -110  * sin(l + l_)
-              -55   * sin(2 * F - 2 * D));
+        T2 = T * T;
+        L0 = (218.31665 + 481267.88134 * T - 0.001327 * T2) % 360.0;
+        // fundamental arguments in radian
+        l  = Math.toRadians((134.96341 + 477198.86763 * T + 0.008997 * T2) % 360.0);
+        l_ = Math.toRadians((357.52911 + 35999.05029 * T + 0.000154 * T2) % 360.0);
+        F  = Math.toRadians((93.27210 + 483202.01753 * T - 0.003403 * T2) % 360.0);
+        D  = Math.toRadians((297.85020 + 445267.11152 * T - 0.001630 * T2) % 360.0);
+        L1 = (22640 * Math.sin(l) + 769 * Math.sin(2 * l) + 36 * Math.sin(3 * l)
+              -4586 * Math.sin(l - 2 * D)
+              +2370 * Math.sin(2 * D)
+              -668  * Math.sin(l_)
+              -412  * Math.sin(2 * F)
+              -212  * Math.sin(2 * l - 2 * D)
+              -206  * Math.sin(l + l_ - 2 * D)
+              +192  * Math.sin(l + 2 * D)
+              -165  * Math.sin(l_ - 2 * D)
+              +148  * Math.sin(l - l_)
+              -125  * Math.sin(D)
+              -110  * Math.sin(l + l_)
+              -55   * Math.sin(2 * F - 2 * D));
         lamb = L0 + (L1 / 60 / 60); // geocentric, ecliptic longitude
-        B = (18520 * sin(F + lamb - L0 + 0.114 * sin(2 * F) + 0.150 * sin(l_))
-             -526  * sin(+F - 2 * D)
-             +44   * sin(+l + F - 2 * D)
-             -31   * sin(-l + F - 2 * D)
-             -25   * sin(-2 * l + F)
-             -23   * sin(+l_ + F - 2 * D)
-             +21   * sin(-l + F)
-             +11   * sin(-l_ + F - 2 * D));
+        B = (18520 * Math.sin(F + Math.toRadians(lamb - L0 + 0.114 * Math.sin(2 * F) +
+                                                 0.150 * Math.sin(l_)))
+             -526  * Math.sin(+F - 2 * D)
+             +44   * Math.sin(+l + F - 2 * D)
+             -31   * Math.sin(-l + F - 2 * D)
+             -25   * Math.sin(-2 * l + F)
+             -23   * Math.sin(+l_ + F - 2 * D)
+             +21   * Math.sin(-l + F)
+             +11   * Math.sin(-l_ + F - 2 * D));
         beta = B / 60 / 60; // geocentric, ecliptic latitude
-        Delta_km = (385000 - 20905 * cos(l) - 570 * cos(2 * l)
-                    - 3699 * cos(2 * D - l)
-                    - 2956 * cos(2 * D)
-                    + 246 * cos(2 * l - 2 * D)
-                    - 205 * cos(l_ - 2 * D)
-                    - 171 * cos(l + 2 * D)
-                    - 152 * cos(l + l_ -2 * D)); // distance to earth [km]
+        Delta_km = (385000 - 20905 * Math.cos(l) - 570 * Math.cos(2 * l)
+                    - 3699 * Math.cos(2 * D - l)
+                    - 2956 * Math.cos(2 * D)
+                    + 246 * Math.cos(2 * l - 2 * D)
+                    - 205 * Math.cos(l_ - 2 * D)
+                    - 171 * Math.cos(l + 2 * D)
+                    - 152 * Math.cos(l + l_ -2 * D)); // distance to earth [km]
         Delta = Delta_km / AU;
         return new double[]{beta, lamb, Delta};
     }
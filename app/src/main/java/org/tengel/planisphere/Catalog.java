@@ -17,63 +17,39 @@
 
 package org.tengel.planisphere;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.regex.Pattern;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 
+/**
+ * The Bright Star Catalogue. The stars are stored in parallel arrays and are
+ * accessed by their index, the HR number of a star can be mapped to its index
+ * with indexOf(). The stars are sorted by apparent magnitude, brightest first,
+ * so the stars up to a magnitude are the indices 0 .. countBrighterThan() - 1.
+ *
+ * The catalog is read from res/raw/bs_catalog.bin, which is created from
+ * catalog/bs_catalog.txt and catalog/star_names.txt by the gradle task
+ * generateStarCatalog. See app/build.gradle for the format.
+ */
 class Catalog
 {
-    static Pattern sPattern = Pattern.compile(" +");
-
-    class Entry
-    {
-        int hr;
-        String name;
-        String bayerFlamsteed;
-        double rightAscension;
-        double declination;
-        double apparentMagnitude;
-
-        public Entry(String s)
-        {
-            hr = Integer.valueOf(substr(s, 0, 4).trim());
-            name = mNames.get(hr);
-            bayerFlamsteed = sPattern.matcher(substr(s, 5, 14).trim()).replaceAll(" ");
-            int RAh = Integer.valueOf(substr(s, 75, 77));
-            int RAm = Integer.valueOf(substr(s, 77, 79));
-            double RAs = Double.valueOf(substr(s, 79, 83));
-            rightAscension = RAh + (RAm / 60.0) + (RAs / 60.0 / 60.0);
-            int DE_ = 1;
-            if (substr(s, 83, 84).equals("-"))
-            {
-                DE_ = -1;
-            }
-            int DEd = Integer.valueOf(substr(s, 84, 86));
-            int DEm = Integer.valueOf(substr(s, 86, 88));
-            int DEs = Integer.valueOf(substr(s, 88, 90));
-            declination = (DEd + (DEm / 60.0) + (DEs / 60.0 / 60.0)) * DE_;
-            apparentMagnitude = Double.valueOf(substr(s, 102, 107));
-        }
-
-        private String substr(String s, int beginIndex, int endIndex)
-        {
-            if (s != null && s.length() > beginIndex && s.length() > endIndex)
-            {
-                return s.substring(beginIndex, endIndex);
-            }
-            else
-            {
-                return null;
-            }
-        }
-    }
+    private static final int MAGIC = 0x42534331; // "BSC1"
+    private static final Charset sUtf8 = Charset.forName("UTF-8");
 
-    private HashMap<Integer, Entry> mEntires = new HashMap<>();
-    private HashMap<Integer, String> mNames = new HashMap<>();
+    private int mSize;
+    private int[] mHr;
+    private double[] mRightAscension; // h
+    private double[] mDeclination;    // degree
+    private double[] mUnitVectors;    // equatorial unit vector (x, y, z) per star
+    private float[] mApparentMagnitude;
+    private int[] mNameOffset;
+    private int[] mBayerFlamsteedOffset;
+    private String[] mName;           // decoded on first access
+    private String[] mBayerFlamsteed; // decoded on first access
+    private byte[] mStrings;
+    private int[] mHrIndex; // HR number -> index, -1 if not in catalog
     private static Catalog sInstance = null;
 
     public static Catalog instance() throws NullPointerException
@@ -85,62 +61,185 @@ class Catalog
         return sInstance;
     }
 
-    public synchronized static void init(InputStream catalogStream,
-                                         InputStream nameStream) throws IOException
+    public synchronized static void init(ByteBuffer catalogBuffer) throws IOException
     {
-        if (catalogStream == null)
+        if (catalogBuffer == null)
         {
-            throw new NullPointerException("stream must not be null");
+            throw new NullPointerException("buffer must not be null");
         }
         else if (sInstance == null)
         {
-            sInstance = new Catalog(catalogStream, nameStream);
+            sInstance = new Catalog(catalogBuffer);
         }
     }
 
-    private Catalog(InputStream catalogStream,
-                    InputStream namesStream) throws IOException
+    private Catalog(ByteBuffer buffer) throws IOException
     {
-        BufferedReader nameReader = new BufferedReader(new InputStreamReader(
-                                                           namesStream));
-        while (true)
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        if (buffer.remaining() < 16 || buffer.getInt() != MAGIC)
         {
-            String line = nameReader.readLine();
-            if (line == null)
-            {
-                break;
-            }
-            String[] lItems = line.split("\t");
-            mNames.put(Integer.valueOf(lItems[1].trim()), lItems[0].trim());
+            throw new IOException("invalid star catalog");
+        }
+        mSize = buffer.getInt();
+        int hrMax = buffer.getInt();
+        int stringsLength = buffer.getInt();
+        if (buffer.remaining() != mSize * 24 + stringsLength)
+        {
+            throw new IOException("invalid star catalog size");
         }
 
-        BufferedReader catalogReader = new BufferedReader(new InputStreamReader(catalogStream));
-        while (true)
+        mHr = new int[mSize];
+        mRightAscension = new double[mSize];
+        mDeclination = new double[mSize];
+        mApparentMagnitude = new float[mSize];
+        mNameOffset = new int[mSize];
+        mBayerFlamsteedOffset = new int[mSize];
+        mName = new String[mSize];
+        mBayerFlamsteed = new String[mSize];
+        mStrings = new byte[stringsLength];
+
+        buffer.asIntBuffer().get(mHr);
+        buffer.position(buffer.position() + mSize * 4);
+        for (int i = 0; i < mSize; ++i)
         {
-            String line = catalogReader.readLine();
-            if (line == null)
-            {
-                break;
-            }
-            try
+            mRightAscension[i] = buffer.getFloat();
+        }
+        for (int i = 0; i < mSize; ++i)
+        {
+            mDeclination[i] = buffer.getFloat();
+        }
+        mUnitVectors = new double[mSize * 3];
+        for (int i = 0; i < mSize; ++i)
+        {
+            Astro.equatorialUnitVector(mRightAscension[i], mDeclination[i], mUnitVectors, i * 3);
+        }
+        buffer.asFloatBuffer().get(mApparentMagnitude);
+        buffer.position(buffer.position() + mSize * 4);
+        buffer.asIntBuffer().get(mNameOffset);
+        buffer.position(buffer.position() + mSize * 4);
+        buffer.asIntBuffer().get(mBayerFlamsteedOffset);
+        buffer.position(buffer.position() + mSize * 4);
+        buffer.get(mStrings);
+
+        mHrIndex = new int[hrMax + 1];
+        Arrays.fill(mHrIndex, -1);
+        for (int i = 0; i < mSize; ++i)
+        {
+            mHrIndex[mHr[i]] = i;
+        }
+    }
+
+    /**
+     * Decode a string of the string table, returns null for offset -1.
+     */
+    private String decodeString(int offset)
+    {
+        if (offset < 0)
+        {
+            return null;
+        }
+        int length = mStrings[offset] & 0xff;
+        return new String(mStrings, offset + 1, length, sUtf8);
+    }
+
+    /**
+     * Returns the number of stars in the catalog.
+     */
+    public int size()
+    {
+        return mSize;
+    }
+
+    /**
+     * Returns the number of stars with an apparent magnitude less than or
+     * equal to magnitude. These are the stars with the indices
+     * 0 .. countBrighterThan(magnitude) - 1.
+     */
+    public int countBrighterThan(double magnitude)
+    {
+        int low = 0;
+        int high = mSize;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (mApparentMagnitude[mid] <= magnitude)
             {
-                Entry e = new Entry(line);
-                mEntires.put(e.hr, e);
+                low = mid + 1;
             }
-            catch(Exception e)
+            else
             {
-                //Log.w(MainActivity.LOG_TAG, "Failed to parse catalog: " + e.toString() + " : " + line);
+                high = mid;
             }
         }
+        return low;
+    }
+
+    /**
+     * Returns the index of the star with the HR number hr or -1 if the star is
+     * not in the catalog.
+     */
+    public int indexOf(int hr)
+    {
+        if (hr < 0 || hr >= mHrIndex.length)
+        {
+            return -1;
+        }
+        return mHrIndex[hr];
+    }
+
+    public int getHr(int idx)
+    {
+        return mHr[idx];
     }
 
-    public final Collection<Entry> get()
+    /**
+     * Returns the right ascension in hours.
+     */
+    public double getRightAscension(int idx)
     {
-        return mEntires.values();
+        return mRightAscension[idx];
     }
 
-    public Entry get(int id)
+    /**
+     * Returns the declination in degree.
+     */
+    public double getDeclination(int idx)
     {
-        return mEntires.get(id);
+        return mDeclination[idx];
+    }
+
+    /**
+     * Returns the equatorial unit vectors of all stars, the vector of star
+     * idx is at index 3 * idx. The array must not be modified.
+     */
+    double[] getUnitVectors()
+    {
+        return mUnitVectors;
+    }
+
+    public double getApparentMagnitude(int idx)
+    {
+        return mApparentMagnitude[idx];
+    }
+
+    /**
+     * Returns the proper name of the star or null.
+     */
+    public String getName(int idx)
+    {
+        if (mName[idx] == null)
+        {
+            mName[idx] = decodeString(mNameOffset[idx]);
+        }
+        return mName[idx];
+    }
+
+    public String getBayerFlamsteed(int idx)
+    {
+        if (mBayerFlamsteed[idx] == null)
+        {
+            mBayerFlamsteed[idx] = decodeString(mBayerFlamsteedOffset[idx]);
+        }
+        return mBayerFlamsteed[idx];
     }
 }
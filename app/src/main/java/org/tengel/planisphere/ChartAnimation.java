@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2020 Timo Engel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.tengel.planisphere;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.view.View;
+import java.util.GregorianCalendar;
+
+/**
+ * Plays the chart time forward or backward. Each frame of the display sets
+ * the current time and requests an update of the engine, which reuses the
+ * chart objects. Requests of frames while an update is running are combined,
+ * so the frame rate drops instead of queueing updates.
+ */
+class ChartAnimation implements Runnable
+{
+    private static final long FRAME_DELAY_MS = 16; // without Choreographer
+
+    private View mView;
+    private Engine mEngine;
+    private Settings mSettings;
+    private boolean mIsRunning = false;
+    private double mSpeed;         // chart seconds per second
+    private long mStartUptime;     // ms
+    private long mStartTime;       // chart time, ms
+
+    ChartAnimation(View view, Engine engine, Settings settings)
+    {
+        mView = view;
+        mEngine = engine;
+        mSettings = settings;
+    }
+
+    /**
+     * Start the animation at the current time, speed is the chart time in
+     * seconds per second, negative to play backward.
+     */
+    void start(double speed)
+    {
+        stop();
+        mSpeed = speed;
+        mStartUptime = SystemClock.uptimeMillis();
+        mStartTime = mSettings.getCurrentTime().getTimeInMillis();
+        mIsRunning = true;
+        mEngine.setAnimation(true);
+        postFrame();
+    }
+
+    /**
+     * Stop the animation, the chart stays at the time of the last frame.
+     */
+    void stop()
+    {
+        if (!mIsRunning)
+        {
+            return;
+        }
+        mIsRunning = false;
+        mView.removeCallbacks(this);
+        mEngine.setAnimation(false);
+        mEngine.update();
+    }
+
+    boolean isRunning()
+    {
+        return mIsRunning;
+    }
+
+    @Override
+    public void run()
+    {
+        if (!mIsRunning)
+        {
+            return;
+        }
+        long elapsed = SystemClock.uptimeMillis() - mStartUptime;
+        GregorianCalendar time = new GregorianCalendar();
+        time.setTimeInMillis(mStartTime + (long) (elapsed * mSpeed));
+        mSettings.setCurrentTime(time);
+        mEngine.update();
+        postFrame();
+    }
+
+    private void postFrame()
+    {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+        {
+            mView.postOnAnimation(this);
+        }
+        else
+        {
+            mView.postDelayed(this, FRAME_DELAY_MS);
+        }
+    }
+}
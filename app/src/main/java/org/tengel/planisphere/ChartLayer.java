@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2020 Timo Engel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.tengel.planisphere;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.RecordingCanvas;
+import android.graphics.RenderNode;
+import android.os.Build;
+import java.util.List;
+import androidx.annotation.RequiresApi;
+
+/**
+ * Cached rendering of the chart objects of one or more Layers. The layer is
+ * rendered with a margin around the view, so it is reused with a translation
+ * while scrolling. It is only rendered again when one of its inputs changed or
+ * the scroll offset left the margin.
+ */
+abstract class ChartLayer
+{
+    private Layer[] mLayers;
+    private boolean mDependsOnObjects;
+    protected boolean mIsValid = false;
+
+    // inputs of the rendered layer
+    private List<ChartObject> mObjects;
+    protected int mMargin;
+    private double mScale;
+    private double mScrollX;
+    private double mScrollY;
+    private int mStyle;
+    private int mGeneration;
+
+    /**
+     * Returns true if the layers are recorded into a RenderNode, which is
+     * possible if the canvas is hardware accelerated and the API level
+     * supports it. Otherwise they are rendered into a bitmap.
+     */
+    static boolean isRecorded(boolean isHardware)
+    {
+        return isHardware && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
+    }
+
+    /**
+     * Returns a layer for the objects of the layers, see isRecorded().
+     */
+    static ChartLayer create(Layer[] layers, boolean dependsOnObjects, boolean isHardware)
+    {
+        if (isRecorded(isHardware))
+        {
+            return new RenderNodeLayer(layers, dependsOnObjects);
+        }
+        return new BitmapLayer(layers, dependsOnObjects);
+    }
+
+    /**
+     * If dependsOnObjects is false, the layer does not change with the time
+     * and location of the chart, only with the settings.
+     */
+    ChartLayer(Layer[] layers, boolean dependsOnObjects)
+    {
+        mLayers = layers;
+        mDependsOnObjects = dependsOnObjects;
+    }
+
+    /**
+     * Render the layer if it is not valid for the passed inputs. While
+     * isScaling is set, a layer that can be scaled is not rendered for a new
+     * scale. Returns true if the layer was rendered.
+     */
+    boolean update(DrawArea da, List<ChartObject> objects, int width, int height,
+                   int margin, double scale, double scrollX, double scrollY,
+                   int style, int generation, boolean isScaling)
+    {
+        boolean isSizeChanged = !isAllocated(width, height, margin);
+        if (mIsValid && !isSizeChanged &&
+            (!mDependsOnObjects || objects == mObjects) &&
+            (scale == mScale || (isScaling && canScale())) &&
+            style == mStyle && generation == mGeneration &&
+            Math.abs(scrollX - mScrollX * scale / mScale) <= margin &&
+            Math.abs(scrollY - mScrollY * scale / mScale) <= margin)
+        {
+            return false;
+        }
+
+        if (isSizeChanged)
+        {
+            release();
+            allocate(width, height, margin);
+        }
+        render(da, objects, width, height, margin);
+
+        mIsValid = true;
+        mObjects = objects;
+        mMargin = margin;
+        mScale = scale;
+        mScrollX = scrollX;
+        mScrollY = scrollY;
+        mStyle = style;
+        mGeneration = generation;
+        return true;
+    }
+
+    /**
+     * Draw the rendered layer transformed to the current scale and scroll
+     * offset. The scale gesture scales the scroll offset with the chart, so
+     * the layer is scaled around the center of the view.
+     */
+    void draw(Canvas canvas, double scale, double scrollX, double scrollY,
+              int width, int height)
+    {
+        double k = scale / mScale;
+        float tx = (float) ((1 - k) * width / 2 + k * mScrollX - scrollX);
+        float ty = (float) ((1 - k) * height / 2 + k * mScrollY - scrollY);
+        draw(canvas, tx, ty, (float) k);
+    }
+
+    protected void drawObjects(DrawArea da, List<ChartObject> objects, Canvas canvas)
+    {
+        for (Layer layer : mLayers)
+        {
+            da.drawObjects(canvas, objects, layer);
+        }
+    }
+
+    /**
+     * Returns true if the rendered layer can be scaled without losing too
+     * much quality.
+     */
+    protected abstract boolean canScale();
+
+    protected abstract boolean isAllocated(int width, int height, int margin);
+
+    protected abstract void allocate(int width, int height, int margin);
+
+    protected abstract void render(DrawArea da, List<ChartObject> objects,
+                                   int width, int height, int margin);
+
+    /**
+     * Draw the layer translated by (tx, ty) and scaled by k.
+     */
+    protected abstract void draw(Canvas canvas, float tx, float ty, float k);
+
+    void release()
+    {
+        mIsValid = false;
+        mObjects = null;
+    }
+}
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Layer rendered into an off-screen bitmap, which is larger than the view by
+ * the margin on each side.
+ */
+class BitmapLayer extends ChartLayer
+{
+    private Bitmap mBitmap;
+    private Canvas mCanvas;
+
+    BitmapLayer(Layer[] layers, boolean dependsOnObjects)
+    {
+        super(layers, dependsOnObjects);
+    }
+
+    @Override
+    protected boolean canScale()
+    {
+        return false;
+    }
+
+    @Override
+    protected boolean isAllocated(int width, int height, int margin)
+    {
+        return mBitmap != null && mMargin == margin &&
+               mBitmap.getWidth() == width + 2 * margin &&
+               mBitmap.getHeight() == height + 2 * margin;
+    }
+
+    @Override
+    protected void allocate(int width, int height, int margin)
+    {
+        mBitmap = Bitmap.createBitmap(width + 2 * margin, height + 2 * margin,
+                                      Bitmap.Config.ARGB_8888);
+        mCanvas = new Canvas(mBitmap);
+    }
+
+    @Override
+    protected void render(DrawArea da, List<ChartObject> objects, int width, int height,
+                          int margin)
+    {
+        mBitmap.eraseColor(Color.TRANSPARENT);
+        mCanvas.save();
+        mCanvas.translate(margin, margin);
+        drawObjects(da, objects, mCanvas);
+        mCanvas.restore();
+    }
+
+    @Override
+    protected void draw(Canvas canvas, float tx, float ty, float k)
+    {
+        canvas.drawBitmap(mBitmap, tx - mMargin, ty - mMargin, null);
+    }
+
+    @Override
+    void release()
+    {
+        super.release();
+        if (mBitmap != null)
+        {
+            mBitmap.recycle();
+        }
+        mBitmap = null;
+        mCanvas = null;
+    }
+}
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Layer recorded into a display list. The recording is not clipped to the
+ * view, so panning and zooming only change the transformation of the node.
+ */
+@RequiresApi(Build.VERSION_CODES.Q)
+class RenderNodeLayer extends ChartLayer
+{
+    private RenderNode mNode;
+
+    RenderNodeLayer(Layer[] layers, boolean dependsOnObjects)
+    {
+        super(layers, dependsOnObjects);
+    }
+
+    @Override
+    protected boolean canScale()
+    {
+        return true;
+    }
+
+    @Override
+    protected boolean isAllocated(int width, int height, int margin)
+    {
+        return mNode != null && mMargin == margin &&
+               mNode.getWidth() == width && mNode.getHeight() == height;
+    }
+
+    @Override
+    protected void allocate(int width, int height, int margin)
+    {
+        mNode = new RenderNode("ChartLayer");
+        mNode.setPosition(0, 0, width, height);
+        mNode.setClipToBounds(false);
+        mNode.setPivotX(0);
+        mNode.setPivotY(0);
+    }
+
+    @Override
+    protected void render(DrawArea da, List<ChartObject> objects, int width, int height,
+                          int margin)
+    {
+        RecordingCanvas canvas = mNode.beginRecording(width, height);
+        try
+        {
+            drawObjects(da, objects, canvas);
+        }
+        finally
+        {
+            mNode.endRecording();
+        }
+    }
+
+    @Override
+    protected void draw(Canvas canvas, float tx, float ty, float k)
+    {
+        mNode.setTranslationX(tx);
+        mNode.setTranslationY(ty);
+        mNode.setScaleX(k);
+        mNode.setScaleY(k);
+        canvas.drawRenderNode(mNode);
+    }
+
+    @Override
+    void release()
+    {
+        super.release();
+        if (mNode != null)
+        {
+            mNode.discardDisplayList();
+        }
+        mNode = null;
+    }
+}
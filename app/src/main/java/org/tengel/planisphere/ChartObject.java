@@ -20,11 +20,16 @@ package org.tengel.planisphere;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Arrays;
 
 enum ObjectType {STAR, PLANET, SUN, MOON, OTHER}
 
+/**
+ * SKY objects depend on the time and location, GRID objects only on the
+ * settings, SCREEN objects are drawn at a fixed position in the view.
+ */
+enum Layer {SKY, GRID, SCREEN}
+
 interface ChartObjectInterface
 {
     void draw(DrawArea da, Canvas canvas);
@@ -32,8 +37,11 @@ interface ChartObjectInterface
 
 abstract class ChartObject implements ChartObjectInterface
 {
-    protected Paint mPaint = new Paint();
-    protected Paint mPaintText = new Paint();
+    // projected points in draw(), only used on the main thread
+    protected static final float[] sXy = new float[10];
+
+    protected Paint mPaint;      // shared, see PaintPool
+    protected Paint mPaintText;
     protected Engine mEngine;
     protected double[] mAzEle = {0.0, 0.0};
     protected String mText = null;
@@ -41,15 +49,32 @@ abstract class ChartObject implements ChartObjectInterface
     protected boolean mShowText = false;
     protected ObjectType mType;
     protected double mApparentMagnitude;
-    protected float mFontScale;
     protected float mChartX;
     protected float mChartY;
 
-    ChartObject(Engine e)
+    ChartObject(Engine e, PaintPool.Kind kind)
     {
         mEngine = e;
-        mPaintText.setTextAlign(Paint.Align.CENTER);
-        mFontScale = Settings.instance().getFontScale();
+        mPaint = e.getPaintPool().getPaint(kind);
+        mPaintText = e.getPaintPool().getTextPaint(kind);
+    }
+
+    /**
+     * Recalculate the horizontal coordinates for the current time and location
+     * of the engine. The chart objects are only recreated when the settings
+     * change, on every other update only this method is called.
+     */
+    public void update()
+    {
+    }
+
+    /**
+     * Returns false if the object should be left out of the chart for the
+     * current time and location.
+     */
+    public boolean isDisplayed()
+    {
+        return true;
     }
 
     public double getAzimuth()
@@ -84,6 +109,11 @@ abstract class ChartObject implements ChartObjectInterface
         return mType;
     }
 
+    public Layer getLayer()
+    {
+        return Layer.SKY;
+    }
+
     public String getTypeString()
     {
         int sid = R.string.unknown;
@@ -127,36 +157,47 @@ class AzGrid extends ChartObject
 {
     public static int sColor;
     private float mAlignY;
+    private String[] mAzTexts = new String[8];
+    private String[] mEleTexts = new String[3];
 
     public AzGrid(Engine e)
     {
-        super(e);
-        mPaint.setColor(sColor);
-        mPaint.setStyle(Paint.Style.STROKE);
-        mPaintText.setColor(sColor);
-        mPaintText.setTextSize(Settings.instance().getTextSize() * mFontScale);
+        super(e, PaintPool.Kind.AZ_GRID);
         mAlignY = (mPaintText.ascent() + mPaintText.descent()) / 2;
         mType = ObjectType.OTHER;
+        for (int i = 0; i < mAzTexts.length; ++i)
+        {
+            mAzTexts[i] = Integer.valueOf(i * 45) + "°";
+        }
+        for (int i = 0; i < mEleTexts.length; ++i)
+        {
+            mEleTexts[i] = Integer.valueOf(i * 30) + "°";
+        }
+    }
+
+    @Override
+    public Layer getLayer()
+    {
+        return Layer.GRID;
     }
 
     @Override
     public void draw(DrawArea da, Canvas canvas)
     {
-        int[] center  = da.horizontal2area(0, 90);
-        int[] pxy, pxyText;
-        for (int az = 0; az < 360; az+=45)
+        float[] xy = sXy; // center: 0, 1; point: 2, 3; text: 4, 5
+        da.horizontal2area(0, 90, xy, 0);
+        for (int i = 0; i < mAzTexts.length; ++i)
         {
-            pxy  = da.horizontal2area(az, 0);
-            canvas.drawLine(center[0], center[1], pxy[0], pxy[1], mPaint);
-            canvas.drawText(Integer.valueOf(az) + "°", pxy[0], pxy[1] - mAlignY,
-                            mPaintText);
+            da.horizontal2area(i * 45, 0, xy, 2);
+            canvas.drawLine(xy[0], xy[1], xy[2], xy[3], mPaint);
+            canvas.drawText(mAzTexts[i], xy[2], xy[3] - mAlignY, mPaintText);
         }
-        for (int ele = 0; ele < 90; ele+=30)
+        for (int i = 0; i < mEleTexts.length; ++i)
         {
-            pxy  = da.horizontal2area(0, ele);
-            pxyText  = da.horizontal2area(22.5, ele);
-            canvas.drawCircle(center[0], center[1], (pxy[1] - center[1]), mPaint);
-            canvas.drawText(Integer.valueOf(ele) + "°", pxyText[0], pxyText[1] - mAlignY, mPaintText);
+            da.horizontal2area(0, i * 30, xy, 2);
+            da.horizontal2area(22.5, i * 30, xy, 4);
+            canvas.drawCircle(xy[0], xy[1], (xy[3] - xy[1]), mPaint);
+            canvas.drawText(mEleTexts[i], xy[4], xy[5] - mAlignY, mPaintText);
         }
     }
 }
@@ -168,37 +209,43 @@ class Horizon extends ChartObject
     public static int sColor = 0;
     private float mAlignY;
     private float mH;
+    private String mTextS;
+    private String mTextW;
+    private String mTextN;
+    private String mTextE;
 
     public Horizon(Engine e)
     {
-        super(e);
-        mPaint.setColor(sColor);
-        mPaint.setStyle(Paint.Style.STROKE);
-        mPaint.setStrokeWidth(e.getActivity().getResources().getDimension(R.dimen.horizon_width));
-        mPaintText.setColor(sColor);
-        mPaintText.setTextSize(Settings.instance().getTextSize() * mFontScale);
+        super(e, PaintPool.Kind.HORIZON);
         mH = mPaintText.ascent() + mPaintText.descent();
         mAlignY = mH / 2;
         mType = ObjectType.OTHER;
+        mTextS = e.getActivity().getString(R.string.direction_s);
+        mTextW = e.getActivity().getString(R.string.direction_w);
+        mTextN = e.getActivity().getString(R.string.direction_n);
+        mTextE = e.getActivity().getString(R.string.direction_e);
+    }
+
+    @Override
+    public Layer getLayer()
+    {
+        return Layer.GRID;
     }
 
     @Override
     public void draw(DrawArea da, Canvas canvas)
     {
-        int[] center = da.horizontal2area(0, 90);
-        int[] south = da.horizontal2area(0, 0);
-        canvas.drawCircle(center[0], center[1], (south[1] - center[1]), mPaint);
-        int[] west  = da.horizontal2area(90, 0);
-        int[] north = da.horizontal2area(180, 0);
-        int[] east  = da.horizontal2area(270, 0);
-        canvas.drawText(da.getContext().getString(R.string.direction_s),
-                        south[0], south[1] - mH * 2, mPaintText);
-        canvas.drawText(da.getContext().getString(R.string.direction_w),
-                        west[0] - mH * 2, west[1] - mAlignY, mPaintText);
-        canvas.drawText(da.getContext().getString(R.string.direction_n),
-                        north[0], north[1] + mH, mPaintText);
-        canvas.drawText(da.getContext().getString(R.string.direction_e),
-                        east[0] + mH * 2, east[1] - mAlignY, mPaintText);
+        float[] xy = sXy; // center, south, west, north, east
+        da.horizontal2area(0, 90, xy, 0);
+        da.horizontal2area(0, 0, xy, 2);
+        da.horizontal2area(90, 0, xy, 4);
+        da.horizontal2area(180, 0, xy, 6);
+        da.horizontal2area(270, 0, xy, 8);
+        canvas.drawCircle(xy[0], xy[1], (xy[3] - xy[1]), mPaint);
+        canvas.drawText(mTextS, xy[2], xy[3] - mH * 2, mPaintText);
+        canvas.drawText(mTextW, xy[4] - mH * 2, xy[5] - mAlignY, mPaintText);
+        canvas.drawText(mTextN, xy[6], xy[7] + mH, mPaintText);
+        canvas.drawText(mTextE, xy[8] + mH * 2, xy[9] - mAlignY, mPaintText);
     }
 }
 
@@ -210,15 +257,23 @@ class InfoText extends ChartObject
 
     public InfoText(Engine e, String text)
     {
-        super(e);
+        super(e, PaintPool.Kind.INFO_TEXT);
         mText = text;
         mShowText = true;
-        mPaintText.setColor(sColor);
-        mPaintText.setTextSize(Settings.instance().getTextSizeSmall() * mFontScale);
-        mPaintText.setTextAlign(Paint.Align.LEFT);
         mType = ObjectType.OTHER;
     }
 
+    public void setText(String text)
+    {
+        mText = text;
+    }
+
+    @Override
+    public Layer getLayer()
+    {
+        return Layer.SCREEN;
+    }
+
     @Override
     public void draw(DrawArea da, Canvas canvas)
     {
@@ -230,62 +285,71 @@ class InfoText extends ChartObject
 
 abstract class RoundObject extends ChartObject
 {
+    // upper limits of the magnitude buckets and the radius of the objects in
+    // each bucket in units of the star size
+    private static final double[] MAGNITUDE_LIMITS = {-20, -10, -3, -1, 1, 3, 5};
+    private static final float[] BUCKET_RADIUS = {9, 7, 5, 4, 3, 2, 1, 0.5f};
+    static final int BUCKET_COUNT = BUCKET_RADIUS.length;
+
     private float mBaseSize;
+    // julian date of the equatorial position of solar system objects, see
+    // Engine.isPositionOutdated()
+    protected double mPositionJd = Double.NaN;
 
-    RoundObject(Engine e)
+    RoundObject(Engine e, PaintPool.Kind kind)
     {
-        super(e);
-        mBaseSize = Settings.instance().getStarSize();
-        mPaintText.setTextAlign(Paint.Align.LEFT);
-        mPaintText.setTextSize(Settings.instance().getTextSizeSmall() * mFontScale);
+        super(e, kind);
+        mBaseSize = e.getPaintPool().getStarSize();
     }
 
     @Override
     public void draw(DrawArea da, Canvas canvas)
     {
-        int[] center = da.horizontal2area(mAzEle[0], mAzEle[1]);
-        mChartX = center[0];
-        mChartY = center[1];
-        float radius;
-
-        if (mApparentMagnitude <= -20)
-        {
-            radius = 9 * mBaseSize; // <= -20
-        }
-        else if (mApparentMagnitude > -20 && mApparentMagnitude <= -10.0)
-        {
-            radius = 7 * mBaseSize; // -20 - -10
-        }
-        else if (mApparentMagnitude > -10 && mApparentMagnitude <= -3.0)
-        {
-            radius = 5 * mBaseSize; // -10 - -3
-        }
-        else if (mApparentMagnitude > -3.0 && mApparentMagnitude <= -1.0)
-        {
-            radius = 4 * mBaseSize; // -3 - -1
-        }
-        else if (mApparentMagnitude > -1.0 && mApparentMagnitude <= 1.0)
-        {
-            radius = 3 * mBaseSize; // -1 - 1
-        }
-        else if (mApparentMagnitude > 1.0 && mApparentMagnitude <= 3.0)
-        {
-            radius = 2 * mBaseSize; // 1 - 3
-        }
-        else if (mApparentMagnitude > 3.0 && mApparentMagnitude <= 5.0)
+        if (!da.getViewport().contains(mAzEle[0], mAzEle[1]))
         {
-            radius = 1 * mBaseSize; // 3 - 5
+            setChartPosition(Float.NaN, Float.NaN);
+            return;
         }
-        else
+        da.horizontal2area(mAzEle[0], mAzEle[1], sXy, 0);
+        mChartX = sXy[0];
+        mChartY = sXy[1];
+        float radius = getRadius(mBaseSize);
+        canvas.drawCircle(mChartX, mChartY, radius, mPaint);
+
+        if (mShowText && mText != null)
         {
-            radius = 0.5f * mBaseSize;
+            da.getLabels().add(mText, mChartX + radius, mChartY, (float) mApparentMagnitude,
+                               mPaintText);
         }
-        canvas.drawCircle(center[0], center[1], radius, mPaint);
+    }
 
-        if (mShowText && mText != null)
+    static int getMagnitudeBucket(double magnitude)
+    {
+        int bucket = 0;
+        while (bucket < MAGNITUDE_LIMITS.length && magnitude > MAGNITUDE_LIMITS[bucket])
         {
-            canvas.drawText(mText, center[0] + radius, center[1] , mPaintText);
+            ++bucket;
         }
+        return bucket;
+    }
+
+    static float getBucketRadius(int bucket, float baseSize)
+    {
+        return BUCKET_RADIUS[bucket] * baseSize;
+    }
+
+    protected float getRadius(float baseSize)
+    {
+        return getBucketRadius(getMagnitudeBucket(mApparentMagnitude), baseSize);
+    }
+
+    /**
+     * NaN if the object is not drawn.
+     */
+    void setChartPosition(float x, float y)
+    {
+        mChartX = x;
+        mChartY = y;
     }
 }
 
@@ -295,41 +359,155 @@ class Star extends RoundObject
 {
     public static int sColor;
     public static int sTextColor;
-    private Catalog.Entry mEntry;
+    private Catalog mCatalog;
+    private int mIdx;
 
-    public Star(Engine engine, Catalog.Entry ce, boolean isNamesEnabled)
+    public Star(Engine engine, Catalog catalog, int idx, boolean isNamesEnabled)
     {
-        super(engine);
-        mEntry = ce;
-        mAzEle = mEngine.equatorial2horizontal(ce.rightAscension, ce.declination);
-        mApparentMagnitude = ce.apparentMagnitude;
-        mPaint.setColor(sColor);
-        mPaintText.setColor(sTextColor);
-
-        if (mEntry.name != null)
+        super(engine, PaintPool.Kind.STAR);
+        mCatalog = catalog;
+        mIdx = idx;
+        mApparentMagnitude = catalog.getApparentMagnitude(idx);
+
+        String name = catalog.getName(idx);
+        String bayerFlamsteed = catalog.getBayerFlamsteed(idx);
+        if (name != null)
         {
-            mText = mEntry.name;
-            mTextLong = mEntry.name;
-            if (mEntry.bayerFlamsteed.length() > 0)
+            mText = name;
+            mTextLong = name;
+            if (bayerFlamsteed.length() > 0)
             {
-                mTextLong += " (" + mEntry.bayerFlamsteed + ")";
+                mTextLong += " (" + bayerFlamsteed + ")";
             }
             mShowText = isNamesEnabled;
         }
         else
         {
-            mText = "HR " + mEntry.hr;
-            if (mEntry.bayerFlamsteed.length() > 0)
+            mText = "HR " + catalog.getHr(idx);
+            if (bayerFlamsteed.length() > 0)
             {
-                mText += " (" + mEntry.bayerFlamsteed + ")";
+                mText += " (" + bayerFlamsteed + ")";
             }
         }
         mType = ObjectType.STAR;
     }
 
-    public Catalog.Entry getCatalogEntry()
+    @Override
+    public void update()
+    {
+        mEngine.equatorial2horizontal(mCatalog.getUnitVectors(), mIdx * 3, mAzEle);
+    }
+
+    /**
+     * Returns the index of the star in the Catalog.
+     */
+    public int getCatalogIndex()
+    {
+        return mIdx;
+    }
+
+    /**
+     * Stars are drawn by the StarField.
+     */
+    @Override
+    public void draw(DrawArea da, Canvas canvas)
+    {
+    }
+}
+
+//-----------------------------------------------------------------------------
+
+/**
+ * Draws the stars with one Canvas.drawPoints() call per magnitude bucket. The
+ * stars are still in the chart objects for the object search and details, the
+ * StarField sets their chart position.
+ */
+class StarField extends ChartObject
+{
+    private Star[] mStars;          // sorted by magnitude bucket
+    private int[] mBucketStart;     // index of the first star of each bucket
+    private int[] mBucketEnd;       // end of the stars in the viewport, see draw()
+    private int[] mVisible;         // stars in the viewport, by bucket
+    private Paint[] mBucketPaints = new Paint[RoundObject.BUCKET_COUNT];
+    private float[] mPoints;
+    private float mBaseSize;
+    private boolean mShowNames = false;
+
+    public StarField(Engine e, ArrayList<Star> stars)
+    {
+        super(e, PaintPool.Kind.STAR);
+        mType = ObjectType.OTHER;
+        mBaseSize = e.getPaintPool().getStarSize();
+
+        mBucketStart = new int[RoundObject.BUCKET_COUNT + 1];
+        int[] buckets = new int[stars.size()];
+        for (int i = 0; i < stars.size(); ++i)
+        {
+            buckets[i] = RoundObject.getMagnitudeBucket(stars.get(i).getApparentMagnitude());
+            ++mBucketStart[buckets[i] + 1];
+        }
+        for (int b = 0; b < RoundObject.BUCKET_COUNT; ++b)
+        {
+            mBucketStart[b + 1] += mBucketStart[b];
+            mBucketPaints[b] = e.getPaintPool().getStarPaint(b);
+        }
+        mStars = new Star[stars.size()];
+        int[] next = mBucketStart.clone();
+        for (int i = 0; i < stars.size(); ++i)
+        {
+            Star star = stars.get(i);
+            mStars[next[buckets[i]]++] = star;
+            mShowNames |= star.mShowText;
+        }
+        mBucketEnd = new int[RoundObject.BUCKET_COUNT];
+        mVisible = new int[mStars.length];
+        mPoints = new float[mStars.length * 2];
+    }
+
+    @Override
+    public void draw(DrawArea da, Canvas canvas)
     {
-        return mEntry;
+        Viewport viewport = da.getViewport();
+        for (int b = 0; b < RoundObject.BUCKET_COUNT; ++b)
+        {
+            // the stars in the viewport are moved to the front of the bucket
+            int n = mBucketStart[b];
+            for (int i = mBucketStart[b]; i < mBucketStart[b + 1]; ++i)
+            {
+                Star star = mStars[i];
+                if (!viewport.contains(star.mAzEle[0], star.mAzEle[1]))
+                {
+                    star.setChartPosition(Float.NaN, Float.NaN);
+                    continue;
+                }
+                da.horizontal2area(star.mAzEle[0], star.mAzEle[1], mPoints, n * 2);
+                star.setChartPosition(mPoints[n * 2], mPoints[n * 2 + 1]);
+                mVisible[n++] = i;
+            }
+            mBucketEnd[b] = n;
+            if (n > mBucketStart[b])
+            {
+                canvas.drawPoints(mPoints, mBucketStart[b] * 2, (n - mBucketStart[b]) * 2,
+                                  mBucketPaints[b]);
+            }
+        }
+        if (mShowNames)
+        {
+            LabelLayout labels = da.getLabels();
+            for (int b = 0; b < RoundObject.BUCKET_COUNT; ++b)
+            {
+                float radius = RoundObject.getBucketRadius(b, mBaseSize);
+                for (int i = mBucketStart[b]; i < mBucketEnd[b]; ++i)
+                {
+                    Star star = mStars[mVisible[i]];
+                    if (star.mShowText && star.mText != null)
+                    {
+                        labels.add(star.mText, mPoints[i * 2] + radius, mPoints[i * 2 + 1],
+                                   (float) star.mApparentMagnitude, mPaintText);
+                    }
+                }
+            }
+        }
     }
 }
 
@@ -340,20 +518,41 @@ class ChartPlanet extends RoundObject
     public static int sColor;
     public static int sTextColor;
     private Planet mPlanet;
+    private boolean mOnlyVisible;
+    private int mMaxMagnitude;
 
-    public ChartPlanet(Engine e, Planet planet, boolean showName)
+    public ChartPlanet(Engine e, Planet planet, String name, boolean showName,
+                       boolean onlyVisible, int maxMagnitude)
     {
-        super(e);
+        super(e, PaintPool.Kind.PLANET);
         mPlanet = planet;
-        mAzEle = mEngine.equatorial2horizontal(planet.mRa / 15, planet.mDeclination);
+        mOnlyVisible = onlyVisible;
+        mMaxMagnitude = maxMagnitude;
         mApparentMagnitude = mPlanet.mApparentMagnitude;
-        mText = Settings.instance().translateName(mPlanet.mName);
+        mText = name;
         mShowText = showName;
-        mPaint.setColor(sColor);
-        mPaintText.setColor(sTextColor);
         mType = ObjectType.PLANET;
     }
 
+    @Override
+    public void update()
+    {
+        if (mEngine.isPositionOutdated(mPositionJd))
+        {
+            mPositionJd = mEngine.getJulianDate();
+            mPlanet.calcHeliocentric(mPositionJd);
+            mPlanet.calcGeocentric(mEngine.getEarth());
+        }
+        mEngine.equatorial2horizontal(mPlanet.mRa / 15, mPlanet.mDeclination, mAzEle);
+    }
+
+    @Override
+    public boolean isDisplayed()
+    {
+        return mOnlyVisible == false ||
+               (mPlanet.mApparentMagnitude <= mMaxMagnitude && mAzEle[1] >= 0);
+    }
+
     public Planet getPlanet()
     {
         return mPlanet;
@@ -367,19 +566,27 @@ class Sun extends RoundObject
     public static int sColor;
     public static int sTextColor;
     public static final String sWikidataId = "Q525";
+    private double[] mRaDec;
 
-    public Sun(Engine e, boolean showName)
+    public Sun(Engine e, String name, boolean showName)
     {
-        super(e);
-        double[] raDec = Astro.calcPositionSun(Astro.julian_date(mEngine.getTime()));
-        mAzEle = mEngine.equatorial2horizontal(raDec[0] / 15, raDec[1]);
+        super(e, PaintPool.Kind.SUN);
         mApparentMagnitude = -26.74;
-        mText = Settings.instance().translateName("Sun");
+        mText = name;
         mShowText = showName;
-        mPaint.setColor(sColor);
-        mPaintText.setColor(sTextColor);
         mType = ObjectType.SUN;
     }
+
+    @Override
+    public void update()
+    {
+        if (mEngine.isPositionOutdated(mPositionJd))
+        {
+            mPositionJd = mEngine.getJulianDate();
+            mRaDec = Astro.calcPositionSun(mPositionJd);
+        }
+        mEngine.equatorial2horizontal(mRaDec[0] / 15, mRaDec[1], mAzEle);
+    }
 }
 
 //-----------------------------------------------------------------------------
@@ -392,31 +599,43 @@ class Moon extends RoundObject
     public double mPhase;
     public double mDistance_sun;
     public double mDistance_earth;
+    private double[] mRaDec;
+
+    public Moon(Engine e, String name, boolean showName)
+    {
+        super(e, PaintPool.Kind.MOON);
+        mApparentMagnitude = -12.7;
+        mText = name;
+        mShowText = showName;
+        mType = ObjectType.MOON;
+    }
+
+    @Override
+    public void update()
+    {
+        if (mEngine.isPositionOutdated(mPositionJd))
+        {
+            mPositionJd = mEngine.getJulianDate();
+            calcPosition();
+        }
+        mEngine.equatorial2horizontal(mRaDec[0] / 15, mRaDec[1], mAzEle);
+    }
 
-    public Moon(Engine e, boolean showName)
+    private void calcPosition()
     {
-        super(e);
         double[] geoEclPos;   // beta (lat), lambda (lon), Delta (earth distance)
         double[] helioEclPos; // b (lat), l (lon), r (distance sun)
-        double[] raDec;
 
-        geoEclPos = Astro.calcPositionMoon(Astro.julian_date(mEngine.getTime()));
+        geoEclPos = Astro.calcPositionMoon(mPositionJd);
         mDistance_earth = geoEclPos[2];
-        raDec = Astro.geoEcl2geoEqua(geoEclPos[0], geoEclPos[1]);
-
-        mAzEle = mEngine.equatorial2horizontal(raDec[0] / 15, raDec[1]);
-        mApparentMagnitude = -12.7;
-        mText = Settings.instance().translateName("Moon");
-        mShowText = showName;
-        mPaint.setColor(sColor);
-        mPaintText.setColor(sTextColor);
-        mType = ObjectType.MOON;
+        mRaDec = Astro.geoEcl2geoEqua(geoEclPos[0], geoEclPos[1]);
 
+        Planet earth = mEngine.getEarth();
         helioEclPos = Astro.geoEcl2helioEcl(
-                Planet.sEarth.mHelio_lon, Planet.sEarth.mHelio_lat, Planet.sEarth.mDistance_sun,
+                earth.mHelio_lon, earth.mHelio_lat, earth.mDistance_sun,
                 geoEclPos[1], geoEclPos[0], geoEclPos[2]);
         mDistance_sun = helioEclPos[2];
-        mPhase = Astro.calcPhase(mDistance_earth, mDistance_sun, Planet.sEarth.mDistance_sun);
+        mPhase = Astro.calcPhase(mDistance_earth, mDistance_sun, earth.mDistance_sun);
     }
 }
 
@@ -424,68 +643,212 @@ class Moon extends RoundObject
 
 abstract class LineObject extends ChartObject
 {
-    protected ArrayList<ArrayList<double[]>> mLines = new ArrayList<>();
+    // equatorial coordinates (right ascension [h], declination) of the
+    // points of all lines, line i consists of the points from mOffsets[i] to
+    // mOffsets[i + 1] - 1
+    protected double[] mEqRa = new double[0];
+    protected double[] mEqDec = new double[0];
+    protected int[] mOffsets = {0};
+    protected int mLineCount = 0;
+    // horizontal coordinates (azimuth, elevation, azimuth, ...) of the
+    // points, calculated in update()
+    protected double[] mPointsAzEle = new double[0];
     protected ArrayList<double[]> mTextCoords = new ArrayList<double[]>();
+    protected ArrayList<double[]> mCenterCoords = new ArrayList<double[]>();
+    protected ArrayList<double[]> mEqTextCoords = new ArrayList<double[]>();
+    protected ArrayList<double[]> mEqCenterCoords = new ArrayList<double[]>();
     protected ArrayList<String> mTexts = new ArrayList<String>();
     protected ArrayList<String> mTextsCenter = new ArrayList<String>();
     protected boolean mShowLines = true;
+    private int[] mCenterLines = new int[0];  // line index of each center text
+    private float[] mPoints = new float[0]; // projected points in draw()
+    private float[] mSegments = new float[0]; // line segments in draw()
+
+    public LineObject(Engine e, PaintPool.Kind kind)
+    {
+        super(e, kind);
+    }
+
+    /**
+     * Add a line in equatorial coordinates (right ascension [h], declination).
+     */
+    protected void addLine(ArrayList<double[]> eqLine)
+    {
+        int offset = mOffsets[mLineCount];
+        mEqRa = Arrays.copyOf(mEqRa, offset + eqLine.size());
+        mEqDec = Arrays.copyOf(mEqDec, offset + eqLine.size());
+        for (int i = 0; i < eqLine.size(); ++i)
+        {
+            mEqRa[offset + i] = eqLine.get(i)[0];
+            mEqDec[offset + i] = eqLine.get(i)[1];
+        }
+        mOffsets = Arrays.copyOf(mOffsets, mLineCount + 2);
+        mOffsets[++mLineCount] = offset + eqLine.size();
+        allocate();
+    }
+
+    /**
+     * Use the lines in the arrays, see mEqRa, mEqDec, mOffsets. The arrays
+     * are not copied and must not be modified.
+     */
+    protected void setLines(double[] ra, double[] dec, int[] offsets)
+    {
+        mEqRa = ra;
+        mEqDec = dec;
+        mOffsets = offsets;
+        mLineCount = offsets.length - 1;
+        allocate();
+    }
+
+    private void allocate()
+    {
+        mPointsAzEle = new double[mOffsets[mLineCount] * 2];
+        int pointsMax = 0;
+        int segments = 0;
+        for (int i = 0; i < mLineCount; ++i)
+        {
+            int count = mOffsets[i + 1] - mOffsets[i];
+            pointsMax = Math.max(pointsMax, count);
+            segments += Math.max(count - 1, 0);
+        }
+        mPoints = new float[pointsMax * 2];
+        mSegments = new float[segments * 4];
+    }
+
+    /**
+     * Add a text at equatorial coordinates (right ascension [h], declination).
+     */
+    protected void addText(double rightAscension, double declination, String text)
+    {
+        mEqTextCoords.add(new double[]{rightAscension, declination});
+        mTextCoords.add(new double[2]);
+        mTexts.add(text);
+    }
+
+    /**
+     * Add a text in the center of the line with index idx, at the mean
+     * direction of its points. It is only drawn if the line is visible.
+     */
+    protected void addCenterText(int idx, String text)
+    {
+        double[] xyz = new double[3];
+        double x = 0, y = 0, z = 0;
+        for (int i = mOffsets[idx]; i < mOffsets[idx + 1]; ++i)
+        {
+            Astro.equatorialUnitVector(mEqRa[i], mEqDec[i], xyz, 0);
+            x += xyz[0];
+            y += xyz[1];
+            z += xyz[2];
+        }
+        double centerRa = Math.toDegrees(Math.atan2(y, x)) / 15;
+        double centerDec = Math.toDegrees(Math.atan2(z, Math.sqrt(x * x + y * y)));
+        mEqCenterCoords.add(new double[]{centerRa < 0 ? centerRa + 24 : centerRa, centerDec});
+        mCenterCoords.add(new double[2]);
+        mTextsCenter.add(text);
+        mCenterLines = Arrays.copyOf(mCenterLines, mTextsCenter.size());
+        mCenterLines[mTextsCenter.size() - 1] = idx;
+    }
+
+    /**
+     * Returns false if the line with index idx should not be drawn.
+     */
+    protected boolean isLineVisible(int idx)
+    {
+        return true;
+    }
+
+    protected void updateLine(int idx)
+    {
+        mEngine.equatorial2horizontal(mEqRa, mEqDec, mOffsets[idx],
+                                      mOffsets[idx + 1] - mOffsets[idx], mPointsAzEle);
+    }
+
+    protected void updateTexts()
+    {
+        for (int i = 0; i < mEqTextCoords.size(); ++i)
+        {
+            double[] raDec = mEqTextCoords.get(i);
+            mEngine.equatorial2horizontal(raDec[0], raDec[1], mTextCoords.get(i));
+        }
+        for (int i = 0; i < mEqCenterCoords.size(); ++i)
+        {
+            double[] raDec = mEqCenterCoords.get(i);
+            mEngine.equatorial2horizontal(raDec[0], raDec[1], mCenterCoords.get(i));
+        }
+    }
 
-    public LineObject(Engine e)
+    @Override
+    public void update()
     {
-        super(e);
+        mEngine.equatorial2horizontal(mEqRa, mEqDec, 0, mOffsets[mLineCount], mPointsAzEle);
+        updateTexts();
     }
 
     @Override
     public void draw(DrawArea da, Canvas canvas)
     {
+        Viewport viewport = da.getViewport();
         if (mShowLines)
         {
-            for (ArrayList<double[]> line : mLines)
-            {
-                drawLine(da, canvas, line);
-            }
+            drawLines(da, viewport, canvas);
         }
 
-        int[] pxy;
-        Iterator<double[]> coordIter = mTextCoords.iterator();
-        Iterator<String> textIter = mTexts.iterator();
-        while(coordIter.hasNext() && textIter.hasNext())
+        LabelLayout labels = da.getLabels();
+        for (int i = 0; i < mTextCoords.size() && i < mTexts.size(); ++i)
         {
-            pxy = da.horizontal2area(coordIter.next());
-            canvas.drawText(textIter.next(), pxy[0], pxy[1], mPaintText);
+            double[] azEle = mTextCoords.get(i);
+            if (viewport.contains(azEle[0], azEle[1]))
+            {
+                da.horizontal2area(azEle[0], azEle[1], sXy, 0);
+                labels.add(mTexts.get(i), sXy[0], sXy[1], LabelLayout.PRIORITY_GRID, mPaintText);
+            }
         }
 
-        Iterator<ArrayList<double[]>> lineIter = mLines.iterator();
-        Iterator<String> textCenterIter = mTextsCenter.iterator();
-        while (lineIter.hasNext() && textCenterIter.hasNext())
+        for (int i = 0; i < mCenterCoords.size(); ++i)
         {
-            float xMax = 0, xMin = Float.MAX_VALUE;
-            float yMax = 0, yMin = Float.MAX_VALUE;
-            for (double[] point : lineIter.next())
+            double[] azEle = mCenterCoords.get(i);
+            if (isLineVisible(mCenterLines[i]) && viewport.contains(azEle[0], azEle[1]))
             {
-                int[] pointXy = da.horizontal2area(point);
-                xMax = Math.max(xMax, pointXy[0]);
-                xMin = Math.min(xMin, pointXy[0]);
-                yMax = Math.max(yMax, pointXy[1]);
-                yMin = Math.min(yMin, pointXy[1]);
+                da.horizontal2area(azEle[0], azEle[1], sXy, 0);
+                labels.add(mTextsCenter.get(i), sXy[0], sXy[1],
+                           LabelLayout.PRIORITY_CONSTELLATION, mPaintText);
             }
-            canvas.drawText(textCenterIter.next(),
-                            xMin + ((xMax - xMin) / 2),
-                            yMin + ((yMax - yMin) / 2), mPaintText);
         }
     }
 
-    private void drawLine(DrawArea da, Canvas canvas, ArrayList<double[]> line)
+    /**
+     * Draw all visible lines with one Canvas.drawLines() call. Segments
+     * outside of the viewport are left out.
+     */
+    private void drawLines(DrawArea da, Viewport viewport, Canvas canvas)
     {
-        int[] pFrom;
-        int[] pTo;
-        Iterator<double[]> iterator = line.iterator();
-        pFrom = da.horizontal2area(iterator.next());
-        while (iterator.hasNext())
+        int count = 0;
+        for (int i = 0; i < mLineCount; ++i)
         {
-            pTo = da.horizontal2area(iterator.next());
-            canvas.drawLine(pFrom[0], pFrom[1], pTo[0], pTo[1], mPaint);
-            pFrom = pTo;
+            int length = (mOffsets[i + 1] - mOffsets[i]) * 2;
+            if (!isLineVisible(i) || length == 0)
+            {
+                continue;
+            }
+            da.horizontal2area(mPointsAzEle, mOffsets[i], length / 2, mPoints);
+            int code = viewport.outcode(mPoints[0], mPoints[1]);
+            for (int j = 2; j < length; j += 2)
+            {
+                int previousCode = code;
+                code = viewport.outcode(mPoints[j], mPoints[j + 1]);
+                if ((previousCode & code) != 0)
+                {
+                    continue;
+                }
+                mSegments[count++] = mPoints[j - 2];
+                mSegments[count++] = mPoints[j - 1];
+                mSegments[count++] = mPoints[j];
+                mSegments[count++] = mPoints[j + 1];
+            }
+        }
+        if (count > 0)
+        {
+            canvas.drawLines(mSegments, 0, count, mPaint);
         }
     }
 }
@@ -498,33 +861,28 @@ class EqGrid extends LineObject
 
     public EqGrid(Engine e)
     {
-        super(e);
+        super(e, PaintPool.Kind.EQ_GRID);
         mType = ObjectType.OTHER;
-        mPaint.setColor(sColor);
-        mPaintText.setColor(sColor);
-        mPaintText.setTextSize(Settings.instance().getTextSize() * mFontScale);
         ArrayList<double[]> line;
         for (int dec = -30; dec < 90; dec+=30)
         {
             line = new ArrayList<>();
             for (int ra = 0; ra <= 24; ++ra)
             {
-                line.add(mEngine.equatorial2horizontal(ra, dec));
+                line.add(new double[]{ra, dec});
             }
-            mLines.add(line);
-            mTextCoords.add(mEngine.equatorial2horizontal(1, dec));
-            mTexts.add(Integer.valueOf(dec) + "°");
+            addLine(line);
+            addText(1, dec, Integer.valueOf(dec) + "°");
         }
         for ( int ra = 0; ra < 24; ra+=2)
         {
             line = new ArrayList<>();
             for (int dec = -30; dec <= 90; dec+=10)
             {
-                line.add(mEngine.equatorial2horizontal(ra, dec));
+                line.add(new double[]{ra, dec});
             }
-            mLines.add(line);
-            mTextCoords.add(mEngine.equatorial2horizontal(ra, -30));
-            mTexts.add(Integer.valueOf(ra) + " h");
+            addLine(line);
+            addText(ra, -30, Integer.valueOf(ra) + " h");
         }
     }
 }
@@ -537,15 +895,14 @@ class Equator extends LineObject
 
     public Equator(Engine e)
     {
-        super(e);
+        super(e, PaintPool.Kind.EQUATOR);
         mType = ObjectType.OTHER;
-        mPaint.setColor(sColor);
         ArrayList<double[]> line = new ArrayList<>();
         for (int ra = 0; ra <= 24; ra++)
         {
-            line.add(mEngine.equatorial2horizontal(ra, 0));
+            line.add(new double[]{ra, 0});
         }
-        mLines.add(line);
+        addLine(line);
     }
 }
 //-----------------------------------------------------------------------------
@@ -556,18 +913,16 @@ class Ecliptic extends LineObject
 
     public Ecliptic(Engine e)
     {
-        super(e);
+        super(e, PaintPool.Kind.ECLIPTIC);
         mType = ObjectType.OTHER;
-        mPaint.setColor(sColor);
-        mPaintText.setColor(sColor);
         double[] raDec;
         ArrayList<double[]> line = new ArrayList<>();
         for (int lon = 0; lon <= 360; lon+=10)
         {
             raDec = Astro.geoEcl2geoEqua(0.0, lon);
-            line.add(mEngine.equatorial2horizontal(raDec[0] / 15, raDec[1]));
+            line.add(new double[]{raDec[0] / 15, raDec[1]});
         }
-        mLines.add(line);
+        addLine(line);
     }
 }
 
@@ -576,35 +931,46 @@ class Ecliptic extends LineObject
 class ConstLines extends LineObject
 {
     public static int sColor;
+    private ConstBoundaries mBoundaries;
 
     public ConstLines(Engine e, ConstellationDb db, ConstBoundaries boundaries,
-                      boolean isLinesEnabled, boolean isNamesEnabled)
+                      boolean isLinesEnabled, boolean isNamesEnabled, int constLanguage)
     {
-        super(e);
+        super(e, PaintPool.Kind.CONST_LINES);
         mType = ObjectType.OTHER;
-        mPaint.setColor(sColor);
-        mPaintText.setColor(sColor);
-        mPaintText.setTextSize(Settings.instance().getTextSizeSmall() * mFontScale);
-        Double[] azEle;
-        boolean isVisible;
-        for (ConstellationDb.Constellation constellation : db.get())
-        {
-            if (!boundaries.isVisible(constellation.mName))
-            {
-                continue;
-            }
-            ArrayList<double[]> constLine = new ArrayList<>();
-            for (Catalog.Entry ce : constellation.mLine)
+        mBoundaries = boundaries;
+        mShowLines = isLinesEnabled;
+        // line index = constellation ID
+        setLines(db.getLineRa(), db.getLineDec(), db.getLineOffsets());
+        if (isNamesEnabled)
+        {
+            for (int id = 0; id < db.size(); ++id)
             {
-                constLine.add(mEngine.equatorial2horizontal(ce.rightAscension, ce.declination));
+                addCenterText(id, db.getName(id, constLanguage));
             }
-            mShowLines = isLinesEnabled;
-            mLines.add(constLine);
-            if (isNamesEnabled)
+        }
+    }
+
+    /**
+     * Requires that the boundaries are updated first.
+     */
+    @Override
+    public void update()
+    {
+        for (int i = 0; i < mLineCount; ++i)
+        {
+            if (isLineVisible(i))
             {
-                mTextsCenter.add(db.getName(constellation.mName));
+                updateLine(i);
             }
         }
+        updateTexts();
+    }
+
+    @Override
+    protected boolean isLineVisible(int idx)
+    {
+        return mBoundaries.isVisible(idx);
     }
 }
 
@@ -613,45 +979,70 @@ class ConstLines extends LineObject
 class ConstBoundaries extends LineObject
 {
     public static int sColor;
-    private HashMap<String, Boolean> mVisibility = new HashMap<>();
+    // rounding errors of the cap test
+    private static final double CAP_EPSILON = 1e-9;
+    private boolean[] mVisibility;
+    private double[] mCapCenters;
+    private double[] mCapSinRadius;
 
     public ConstBoundaries(Engine e, ConstellationDb db, boolean isBoundEnabled)
     {
-        super(e);
+        super(e, PaintPool.Kind.CONST_BOUNDARIES);
         mType = ObjectType.OTHER;
-        mPaint.setColor(sColor);
-        double[] azEle;
-        double[] azEleFirst = null;
-        boolean isVisible;
-        for (ConstellationDb.Constellation constellation : db.get())
-        {
-            ArrayList<double[]> boundLine = new ArrayList<>();
-            isVisible = false;
-            azEleFirst = null;
-            for (Double[] raDec : db.getBoundary(constellation.mName))
+        mShowLines = isBoundEnabled;
+        // line index = constellation ID
+        setLines(db.getBoundaryRa(), db.getBoundaryDec(), db.getBoundaryOffsets());
+        mVisibility = new boolean[db.size()];
+        mCapCenters = db.getCapCenters();
+        mCapSinRadius = db.getCapSinRadius();
+    }
+
+    /**
+     * The boundary is only transformed if its cap intersects the horizon, or
+     * if it is above the horizon and the boundaries are drawn.
+     */
+    @Override
+    public void update()
+    {
+        for (int id = 0; id < mLineCount; ++id)
+        {
+            double sinEle = mEngine.sinElevation(mCapCenters, id * 3);
+            if (sinEle < -mCapSinRadius[id] - CAP_EPSILON)
             {
-                azEle = mEngine.equatorial2horizontal(raDec[0], raDec[1]);
-                boundLine.add(azEle);
-                if (azEleFirst == null)
-                {
-                    azEleFirst = azEle;
-                }
-                if (azEle[1] > 0)
+                mVisibility[id] = false;
+                continue;
+            }
+            if (sinEle > mCapSinRadius[id] + CAP_EPSILON && !mShowLines)
+            {
+                mVisibility[id] = true;
+                continue;
+            }
+            updateLine(id);
+            boolean isVisible = false;
+            for (int j = mOffsets[id] * 2 + 1; j < mOffsets[id + 1] * 2; j += 2)
+            {
+                if (mPointsAzEle[j] > 0)
                 {
                     isVisible = true;
+                    break;
                 }
             }
-            boundLine.add(azEleFirst);
-            if (isVisible && isBoundEnabled)
-            {
-                mLines.add(boundLine);
-            }
-            mVisibility.put(constellation.mName, isVisible);
+            mVisibility[id] = isVisible;
         }
     }
 
-    public boolean isVisible(String name)
+    @Override
+    protected boolean isLineVisible(int idx)
+    {
+        return mVisibility[idx];
+    }
+
+    /**
+     * Returns true if a part of the boundary of the constellation is above
+     * the horizon.
+     */
+    public boolean isVisible(int id)
     {
-        return mVisibility.get(name);
+        return mVisibility[id];
     }
 }
@@ -25,17 +25,29 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Locale;
 
+/**
+ * Constellation lines, boundaries and names. The constellations are
+ * identified by an index (ID) in the order of the lines file. The vertices of
+ * all constellations are stored one after another in primitive arrays, the
+ * vertices of constellation id are at the indices from offsets[id] to
+ * offsets[id + 1] - 1.
+ */
 public class ConstellationDb
 {
-    class Constellation
-    {
-        String mName = new String();
-        ArrayList<Catalog.Entry> mLine = new ArrayList<Catalog.Entry>();
-    }
-
-    private ArrayList<Constellation> mEntries = new ArrayList<Constellation>();
-    private HashMap<String, String[]> mNames = new HashMap<String, String[]>();
-    private HashMap<String, ArrayList<Double[]>> mBoundaries = new HashMap<>();
+    private String[] mAbbreviations;   // lower case
+    private String[][] mNames;
+    private HashMap<String, Integer> mIds = new HashMap<>();
+    // equatorial coordinates of the line stars
+    private double[] mLineRa;
+    private double[] mLineDec;
+    private int[] mLineOffsets;
+    // boundary vertices, each boundary ends with its first vertex
+    private double[] mBoundaryRa;
+    private double[] mBoundaryDec;
+    private int[] mBoundaryOffsets;
+    // cap around the boundary of each constellation, see Astro.boundingCap()
+    private double[] mCapCenters;
+    private double[] mCapSinRadius;
     private static ConstellationDb sInstance = null;
 
     public static ConstellationDb instance() throws NullPointerException
@@ -66,6 +78,9 @@ public class ConstellationDb
                             InputStream boundStream,
                             Catalog catalog) throws IOException
     {
+        ArrayList<String> abbreviations = new ArrayList<>();
+        ArrayList<int[]> lines = new ArrayList<>();
+        int lineStarCount = 0;
         BufferedReader fileReader = new BufferedReader(new InputStreamReader(lineStream));
         while (true)
         {
@@ -79,17 +94,38 @@ public class ConstellationDb
                 continue;
             }
             String[] lItems = line.split(" +");
-            Constellation con = new Constellation();
-            con.mName = lItems[0].trim().toLowerCase(Locale.ROOT);
+            String abbreviation = lItems[0].trim().toLowerCase(Locale.ROOT);
             int pointId;
+            int[] stars = new int[lItems.length - 2];
             for (int i = 2; i < lItems.length; ++i)
             {
                 pointId = Integer.valueOf(lItems[i].trim());
-                con.mLine.add(catalog.get(pointId));
+                stars[i - 2] = catalog.indexOf(pointId);
             }
-            mEntries.add(con);
+            mIds.put(abbreviation, abbreviations.size());
+            abbreviations.add(abbreviation);
+            lines.add(stars);
+            lineStarCount += stars.length;
         }
+        int count = abbreviations.size();
+        mAbbreviations = abbreviations.toArray(new String[count]);
 
+        mLineRa = new double[lineStarCount];
+        mLineDec = new double[lineStarCount];
+        mLineOffsets = new int[count + 1];
+        for (int id = 0; id < count; ++id)
+        {
+            int[] stars = lines.get(id);
+            int offset = mLineOffsets[id];
+            for (int i = 0; i < stars.length; ++i)
+            {
+                mLineRa[offset + i] = catalog.getRightAscension(stars[i]);
+                mLineDec[offset + i] = catalog.getDeclination(stars[i]);
+            }
+            mLineOffsets[id + 1] = offset + stars.length;
+        }
+
+        mNames = new String[count][];
         fileReader = new BufferedReader(new InputStreamReader(nameStream));
         while (true)
         {
@@ -99,12 +135,21 @@ public class ConstellationDb
                 break;
             }
             String[] lItems = line.split("\t");
-            mNames.put(lItems[0].trim().toLowerCase(Locale.ROOT),
-                       new String[] {lItems[0].trim(), lItems[1].trim(), lItems[2].trim(),
-                                     lItems[3].trim(), lItems[4].trim(), lItems[5].trim(),
-                                     lItems[6].trim(), lItems[7].trim(), lItems[8].trim()});
+            Integer id = mIds.get(lItems[0].trim().toLowerCase(Locale.ROOT));
+            if (id != null)
+            {
+                mNames[id] = new String[] {lItems[0].trim(), lItems[1].trim(), lItems[2].trim(),
+                                           lItems[3].trim(), lItems[4].trim(), lItems[5].trim(),
+                                           lItems[6].trim(), lItems[7].trim(), lItems[8].trim()};
+            }
         }
 
+        ArrayList<ArrayList<double[]>> boundaries = new ArrayList<>();
+        for (int id = 0; id < count; ++id)
+        {
+            boundaries.add(new ArrayList<double[]>());
+        }
+        int boundaryCount = 0;
         fileReader = new BufferedReader(new InputStreamReader(boundStream));
         while(true)
         {
@@ -116,33 +161,92 @@ public class ConstellationDb
             String[] lItems = line.split("\\|");
             String rightAscension = lItems[0].trim();
             String[] raItems = rightAscension.split(" ");
-            Integer raH = Integer.valueOf(raItems[0].trim());
-            Integer raM = Integer.valueOf(raItems[1].trim());
-            Double raS = Double.valueOf(raItems[2].trim());
-            Double declination = Double.valueOf(lItems[1].trim());
-            String name = lItems[2].trim().toLowerCase(Locale.ROOT);
-            if (mBoundaries.get(name) == null)
+            int raH = Integer.parseInt(raItems[0].trim());
+            int raM = Integer.parseInt(raItems[1].trim());
+            double raS = Double.parseDouble(raItems[2].trim());
+            double declination = Double.parseDouble(lItems[1].trim());
+            Integer id = mIds.get(lItems[2].trim().toLowerCase(Locale.ROOT));
+            if (id != null)
             {
-                mBoundaries.put(name, new ArrayList<Double[]>());
+                boundaries.get(id).add(new double[] {raH + (raM / 60.0) + (raS / 60.0 / 60.0),
+                                                     declination});
+                ++boundaryCount;
             }
-            mBoundaries.get(name).add(new Double[] {raH + (raM / 60.0) + (raS / 60.0 / 60.0),
-                                                    declination});
         }
+
+        // one more vertex per boundary to close it
+        mBoundaryRa = new double[boundaryCount + count];
+        mBoundaryDec = new double[boundaryCount + count];
+        mBoundaryOffsets = new int[count + 1];
+        for (int id = 0; id < count; ++id)
+        {
+            ArrayList<double[]> boundary = boundaries.get(id);
+            int offset = mBoundaryOffsets[id];
+            for (int i = 0; i <= boundary.size(); ++i)
+            {
+                double[] raDec = boundary.get(i % boundary.size());
+                mBoundaryRa[offset + i] = raDec[0];
+                mBoundaryDec[offset + i] = raDec[1];
+            }
+            mBoundaryOffsets[id + 1] = offset + boundary.size() + 1;
+        }
+
+        mCapCenters = new double[count * 3];
+        mCapSinRadius = new double[count];
+        for (int id = 0; id < count; ++id)
+        {
+            int offset = mBoundaryOffsets[id];
+            mCapSinRadius[id] = Astro.boundingCap(mBoundaryRa, mBoundaryDec, offset,
+                                                  mBoundaryOffsets[id + 1] - offset - 1,
+                                                  mCapCenters, id * 3);
+        }
+    }
+
+    /**
+     * Returns the number of constellations, the IDs are 0 to size() - 1.
+     */
+    public int size()
+    {
+        return mAbbreviations.length;
     }
 
-    public ArrayList<Constellation> get()
+    /**
+     * Returns the ID of the constellation with the abbreviation (any case),
+     * -1 if it does not exist.
+     */
+    public int getId(String abbreviation)
     {
-        return mEntries;
+        Integer id = mIds.get(abbreviation.toLowerCase(Locale.ROOT));
+        return id == null ? -1 : id;
     }
 
-    public String getName(String abbr)
+    /**
+     * Returns the lower case abbreviation of the constellation.
+     */
+    public String getAbbreviation(int id)
+    {
+        return mAbbreviations[id];
+    }
+
+    /**
+     * Returns the name of the constellation in the language langIdx, see
+     * resolveLanguage().
+     */
+    public String getName(int id, int langIdx)
+    {
+        return mNames[id][langIdx];
+    }
+
+    /**
+     * Returns the index of the names for Settings.getConstLanguage(), the
+     * system default is resolved with the language of the system.
+     */
+    static int resolveLanguage(int langIdx, String lang)
     {
         // 0=Abbrv; 1=Latin; 2=English; 3=German; 4=Chinese; 5=Spanish;
         // 6=Norwegian 7=French 8=italian 9=system default
-        int langIdx = Settings.instance().getConstLanguage();
         if (langIdx == 9)
         {
-            String lang = Settings.instance().getLanguage();
             if (lang.equals("en"))
             {
                 langIdx = 1;
@@ -176,11 +280,76 @@ public class ConstellationDb
                 langIdx = 1;
             }
         }
-        return mNames.get(abbr)[langIdx];
+        return langIdx;
+    }
+
+    /**
+     * Right ascension (h) of the stars of all constellation lines, see
+     * getLineOffsets().
+     */
+    double[] getLineRa()
+    {
+        return mLineRa;
+    }
+
+    /**
+     * Declination (degree) of the stars of all constellation lines.
+     */
+    double[] getLineDec()
+    {
+        return mLineDec;
+    }
+
+    /**
+     * The line of constellation id consists of the stars from
+     * getLineOffsets()[id] to getLineOffsets()[id + 1] - 1.
+     */
+    int[] getLineOffsets()
+    {
+        return mLineOffsets;
+    }
+
+    /**
+     * Right ascension (h) of the vertices of all boundaries.
+     */
+    double[] getBoundaryRa()
+    {
+        return mBoundaryRa;
+    }
+
+    /**
+     * Declination (degree) of the vertices of all boundaries.
+     */
+    double[] getBoundaryDec()
+    {
+        return mBoundaryDec;
+    }
+
+    /**
+     * The boundary of constellation id consists of the vertices from
+     * getBoundaryOffsets()[id] to getBoundaryOffsets()[id + 1] - 1, the last
+     * vertex is the same as the first one.
+     */
+    int[] getBoundaryOffsets()
+    {
+        return mBoundaryOffsets;
+    }
+
+    /**
+     * Equatorial unit vectors of the centers of the caps that contain the
+     * boundaries, 3 values per constellation.
+     */
+    double[] getCapCenters()
+    {
+        return mCapCenters;
     }
 
-    public ArrayList<Double[]> getBoundary(String name)
+    /**
+     * Sine of the radius of the caps that contain the boundaries, 1 for caps
+     * of a hemisphere or more.
+     */
+    double[] getCapSinRadius()
     {
-        return mBoundaries.get(name);
+        return mCapSinRadius;
     }
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2020 Timo Engel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.tengel.planisphere;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Resources;
+import android.os.Handler;
+import android.os.Looper;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads the star catalog, the constellations and the orbital elements of the
+ * planets in background threads. The datasets are loaded in parallel, only the
+ * constellations wait for the catalog. The listener is notified on the main
+ * thread as soon as a dataset is available.
+ */
+class DataLoader
+{
+    enum Dataset {CATALOG, CONSTELLATIONS, PLANETS}
+
+    interface Listener
+    {
+        /**
+         * Called on the main thread when dataset is initialized.
+         */
+        void dataLoaded(Dataset dataset);
+
+        /**
+         * Called on the main thread when loading a dataset failed.
+         */
+        void dataLoadFailed(Dataset dataset, Exception e);
+    }
+
+    private Resources mResources;
+    private volatile Listener mListener;
+    private Handler mHandler = new Handler(Looper.getMainLooper());
+
+    DataLoader(Resources resources, Listener listener)
+    {
+        mResources = resources;
+        mListener = listener;
+    }
+
+    /**
+     * Start loading all datasets in background threads.
+     */
+    void start()
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(Dataset.values().length);
+        Future<Void> catalog = executor.submit(new Loader(Dataset.CATALOG, null));
+        executor.submit(new Loader(Dataset.CONSTELLATIONS, catalog));
+        executor.submit(new Loader(Dataset.PLANETS, null));
+        executor.shutdown();
+    }
+
+    /**
+     * Stop notifying the listener, datasets which are currently loaded are
+     * still initialized.
+     */
+    void cancel()
+    {
+        mListener = null;
+    }
+
+    /**
+     * Load a dataset in the calling thread. Does nothing if the dataset is
+     * already initialized.
+     */
+    void load(Dataset dataset) throws IOException
+    {
+        switch (dataset)
+        {
+            case CATALOG:
+                Catalog.init(mapRawResource(R.raw.bs_catalog));
+                break;
+            case CONSTELLATIONS:
+                ConstellationDb.init(mResources.openRawResource(R.raw.constellation_lines),
+                                     mResources.openRawResource(R.raw.constellation_names),
+                                     mResources.openRawResource(R.raw.constellation_boundaries),
+                                     Catalog.instance());
+                break;
+            case PLANETS:
+                PlanetCsv.init(mResources.openRawResource(R.raw.horizons_jupiter),
+                               mResources.openRawResource(R.raw.horizons_saturn),
+                               mResources.openRawResource(R.raw.horizons_uranus),
+                               mResources.openRawResource(R.raw.horizons_neptune));
+                break;
+        }
+    }
+
+    /**
+     * Memory map a raw resource. The resource must be stored uncompressed.
+     */
+    private ByteBuffer mapRawResource(int id) throws IOException
+    {
+        AssetFileDescriptor afd = mResources.openRawResourceFd(id);
+        FileInputStream stream = afd.createInputStream();
+        try
+        {
+            return stream.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                                           afd.getStartOffset(), afd.getLength());
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
+
+    private class Loader implements Callable<Void>
+    {
+        private Dataset mDataset;
+        private Future<Void> mDependency;
+
+        Loader(Dataset dataset, Future<Void> dependency)
+        {
+            mDataset = dataset;
+            mDependency = dependency;
+        }
+
+        @Override
+        public Void call() throws Exception
+        {
+            if (mDependency != null)
+            {
+                try
+                {
+                    mDependency.get();
+                }
+                catch (ExecutionException e)
+                {
+                    // failure is reported by the loader of the dependency
+                    return null;
+                }
+            }
+            try
+            {
+                load(mDataset);
+                mHandler.post(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        Listener listener = mListener;
+                        if (listener != null)
+                        {
+                            listener.dataLoaded(mDataset);
+                        }
+                    }
+                });
+            }
+            catch (final Exception e)
+            {
+                mHandler.post(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        Listener listener = mListener;
+                        if (listener != null)
+                        {
+                            listener.dataLoadFailed(mDataset, e);
+                        }
+                    }
+                });
+                throw e;
+            }
+            return null;
+        }
+    }
+}
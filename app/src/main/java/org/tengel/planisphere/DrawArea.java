@@ -17,20 +17,22 @@
 
 package org.tengel.planisphere;
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.graphics.Canvas;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
 import android.view.View;
-import java.util.Vector;
+import java.util.List;
 import androidx.appcompat.app.ActionBar;
 import androidx.core.math.MathUtils;
 
 public class DrawArea extends View
 {
-    private Vector<ChartObject> mObjects;
+    private List<ChartObject> mObjects;
     private int mSize;
     private ScaleGestureDetector mScaleDetector;
     private GestureDetector mGestureDetector;
@@ -43,9 +45,42 @@ public class DrawArea extends View
     private double mScrollMax = 0;
     private int mContentWidth = 0;
     private int mContentHeight = 0;
+    // projection, see updateProjection()
+    private double mHPixel = 0;
+    private double mCenterX = 0;
+    private double mCenterY = 0;
+
+    private ScreenIndex mIndex;
+    private Viewport mViewport = new Viewport();
+    private LabelLayout mLabels;
+    private float mCullPadding;
+    // scroll offset when the index was built
+    private double mIndexScrollX = 0;
+    private double mIndexScrollY = 0;
+
+    // created in the first onDraw(), when the canvas type is known. Bitmap
+    // layers are memory intensive, so there is only the sky layer, which
+    // also contains the grid.
+    private ChartLayer mSkyLayer;
+    private ChartLayer mGridLayer;
+    private boolean mUseLayers = true;
+    private int mLayerMargin;
+    private int mMemoryClass;
+    private boolean mIsScaling = false;
 
     private static final int BORDER = 10;
     private static final double SCALE_FACTOR_MAX = 100.0;
+    private static final float INDEX_CELL_SIZE_DP = 32;
+    private static final int NEARBY_OBJECTS_MAX = 10;
+    // objects are drawn if they are less than this outside of the viewport,
+    // so the circles and names at the border are not cut off
+    private static final float CULL_PADDING_DP = 64;
+    private static final float LABEL_CELL_SIZE_DP = 48;
+    // margin of the layers, the pan of a fast fling (about 8000 dp/s) in one
+    // frame at 60 Hz. Slower pans reuse the layer for several frames.
+    private static final float LAYER_MARGIN_DP = 128;
+    // part of the heap of the app a bitmap layer may use
+    private static final int LAYER_MEMORY_FRACTION = 8;
 
     public DrawArea(Context context)
     {
@@ -69,6 +104,14 @@ public class DrawArea extends View
     {
         mScaleDetector = new ScaleGestureDetector(getContext(), new ScaleListener());
         mGestureDetector = new GestureDetector(getContext(), new GestureListener());
+        float density = getResources().getDisplayMetrics().density;
+        mIndex = new ScreenIndex(INDEX_CELL_SIZE_DP * density);
+        mCullPadding = CULL_PADDING_DP * density;
+        mLabels = new LabelLayout(LABEL_CELL_SIZE_DP * density);
+        mLayerMargin = Math.round(LAYER_MARGIN_DP * density);
+        ActivityManager am =
+            (ActivityManager) getContext().getSystemService(Context.ACTIVITY_SERVICE);
+        mMemoryClass = (am != null) ? am.getMemoryClass() : 0;
     }
 
     @Override
@@ -80,39 +123,251 @@ public class DrawArea extends View
         mSize = Math.min(mContentWidth, mContentHeight) - (2 * BORDER);
         mScrollMin = (mSize / -2.0) * mScaleFactor;
         mScrollMax = (mSize / 2.0) * mScaleFactor;
-        if (mObjects != null)
+        updateProjection();
+        if (mObjects == null)
+        {
+            return;
+        }
+        if (mUseLayers)
         {
-            for (ChartObject co : mObjects)
+            try
+            {
+                if (drawLayers(canvas))
+                {
+                    return;
+                }
+                Log.w(MainActivity.LOG_TAG, "chart layers disabled: bitmap larger than " +
+                      mMemoryClass + " MB / " + LAYER_MEMORY_FRACTION);
+                mUseLayers = false;
+                releaseLayers();
+            }
+            catch (OutOfMemoryError e)
+            {
+                Log.w(MainActivity.LOG_TAG, "chart layers disabled: " + e);
+                mUseLayers = false;
+                releaseLayers();
+            }
+        }
+        mViewport.set(0, 0, mContentWidth, mContentHeight, mCullPadding,
+                      mCenterX, mCenterY, mHPixel);
+        drawObjects(canvas, mObjects, null);
+        // the chart positions are set in draw()
+        mIndexScrollX = mScrollOffsetX;
+        mIndexScrollY = mScrollOffsetY;
+        mIndex.build(mObjects, 0, 0, mContentWidth, mContentHeight);
+    }
+
+    /**
+     * Draw the chart from the cached layer bitmaps. A layer is only rendered
+     * again when its inputs changed or it was scrolled beyond its margin,
+     * otherwise it is drawn translated by the scroll distance. Layers
+     * recorded into a RenderNode are also only scaled during a scale gesture
+     * and rendered for the new scale when the gesture ends. Returns false if
+     * a bitmap layer does not fit into the memory of the app.
+     */
+    private boolean drawLayers(Canvas canvas)
+    {
+        if (mSkyLayer == null)
+        {
+            boolean isHardware = canvas.isHardwareAccelerated();
+            if (ChartLayer.isRecorded(isHardware))
+            {
+                mSkyLayer = ChartLayer.create(new Layer[]{Layer.SKY}, true, isHardware);
+                mGridLayer = ChartLayer.create(new Layer[]{Layer.GRID}, false, isHardware);
+            }
+            else
+            {
+                mSkyLayer = ChartLayer.create(new Layer[]{Layer.SKY, Layer.GRID}, true,
+                                              isHardware);
+            }
+        }
+        int margin = mLayerMargin;
+        if (mGridLayer == null)
+        {
+            margin = getBitmapMargin(margin);
+            if (margin < 0)
+            {
+                return false;
+            }
+        }
+        Settings settings = Settings.instance();
+        mViewport.set(-margin, -margin, mContentWidth + margin, mContentHeight + margin,
+                      mCullPadding, mCenterX, mCenterY, mHPixel);
+        if (mSkyLayer.update(this, mObjects, mContentWidth, mContentHeight, margin,
+                             mScaleFactor, mScrollOffsetX, mScrollOffsetY,
+                             settings.getStyle(), settings.getGeneration(), mIsScaling))
+        {
+            // the chart positions are set in draw()
+            mIndexScrollX = mScrollOffsetX;
+            mIndexScrollY = mScrollOffsetY;
+            mIndex.build(mObjects, -margin, -margin, mContentWidth + 2 * margin,
+                         mContentHeight + 2 * margin);
+        }
+        if (mGridLayer != null)
+        {
+            mGridLayer.update(this, mObjects, mContentWidth, mContentHeight, margin,
+                              mScaleFactor, mScrollOffsetX, mScrollOffsetY,
+                              settings.getStyle(), settings.getGeneration(), mIsScaling);
+        }
+        mSkyLayer.draw(canvas, mScaleFactor, mScrollOffsetX, mScrollOffsetY,
+                       mContentWidth, mContentHeight);
+        if (mGridLayer != null)
+        {
+            mGridLayer.draw(canvas, mScaleFactor, mScrollOffsetX, mScrollOffsetY,
+                            mContentWidth, mContentHeight);
+        }
+        for (ChartObject co : mObjects)
+        {
+            if (co.getLayer() == Layer.SCREEN)
             {
                 co.draw(this, canvas);
             }
         }
+        return true;
+    }
+
+    @Override
+    protected void onDetachedFromWindow()
+    {
+        super.onDetachedFromWindow();
+        releaseLayers();
+        // the window of the next attach may not be hardware accelerated
+        mSkyLayer = null;
+        mGridLayer = null;
+    }
+
+    private void releaseLayers()
+    {
+        if (mSkyLayer != null)
+        {
+            mSkyLayer.release();
+        }
+        if (mGridLayer != null)
+        {
+            mGridLayer.release();
+        }
     }
 
-    public void setObjects(Vector<ChartObject> objects)
+    /**
+     * Returns the margin of a bitmap layer, at most the passed margin, so the
+     * bitmap uses at most 1 / LAYER_MEMORY_FRACTION of the memory class of
+     * the app. Returns -1 if the bitmap does not fit without margin.
+     */
+    private int getBitmapMargin(int margin)
+    {
+        if (mMemoryClass <= 0)
+        {
+            return margin;
+        }
+        double pixels = mMemoryClass * 1024.0 * 1024.0 / LAYER_MEMORY_FRACTION / 4;
+        double w = mContentWidth;
+        double h = mContentHeight;
+        if (w * h > pixels)
+        {
+            return -1;
+        }
+        // largest m with (w + 2m) * (h + 2m) <= pixels
+        double maxMargin = (Math.sqrt((w - h) * (w - h) + 4 * pixels) - (w + h)) / 4;
+        return Math.min(margin, (int) maxMargin);
+    }
+
+    /**
+     * Set the objects of the published snapshot. The objects of the previous
+     * snapshot are updated by the engine again, so they are removed from the
+     * index until the next onDraw().
+     */
+    public void setObjects(List<ChartObject> objects)
     {
         mObjects = objects;
+        mIndex.clear();
         invalidate();
     }
 
+    /**
+     * Returns the objects closest to the paint area coordinates, the closest
+     * object first. The objects are only valid until the next setObjects().
+     */
+    public ChartObject[] findObjectsNear(float x, float y)
+    {
+        float distanceMax = Math.max(mContentWidth, mContentHeight) / 2f;
+        // the index may be from a layer drawn at another scroll offset
+        return mIndex.findNearest(x + (float) (mScrollOffsetX - mIndexScrollX),
+                                  y + (float) (mScrollOffsetY - mIndexScrollY),
+                                  NEARBY_OBJECTS_MAX, distanceMax);
+    }
+
+    /**
+     * Draw the objects of the layer, or all objects if layer is null, and
+     * then the texts they added to the label layout.
+     */
+    void drawObjects(Canvas canvas, List<ChartObject> objects, Layer layer)
+    {
+        mLabels.begin(mViewport.getLeft(), mViewport.getTop(), mViewport.getRight(),
+                      mViewport.getBottom());
+        for (ChartObject co : objects)
+        {
+            if (layer == null || co.getLayer() == layer)
+            {
+                co.draw(this, canvas);
+            }
+        }
+        mLabels.draw(canvas);
+    }
+
+    /**
+     * Texts added in ChartObject.draw() are drawn after all objects, without
+     * overlaps.
+     */
+    public LabelLayout getLabels()
+    {
+        return mLabels;
+    }
+
+    /**
+     * Returns the part of the paint area that is currently drawn.
+     */
+    public Viewport getViewport()
+    {
+        return mViewport;
+    }
+
+    /**
+     * Calculate the projection parameters for the current size, scale and
+     * scroll offset.
+     */
+    private void updateProjection()
+    {
+        mHPixel = (mSize * mScaleFactor) / 2.0 / 90.0;
+        mCenterX = (mContentWidth / 2.0) - mScrollOffsetX;
+        mCenterY = (mContentHeight / 2.0) - mScrollOffsetY;
+    }
+
     /**
      * Convert horizontal coordinates to paint area
-     * Returns (x, y)
+     * Writes (x, y) into xy[offset], xy[offset + 1]
      */
-    public int[] horizontal2area(double azimuth, double elevation)
+    public void horizontal2area(double azimuth, double elevation, float[] xy, int offset)
     {
-        double hpixel = (mSize * mScaleFactor) / 2.0 / 90.0;
         double azimuthRad = Math.toRadians(azimuth);
-        double xoff = Math.sin(azimuthRad) * (90 - elevation) * hpixel;
-        double yoff = Math.cos(azimuthRad) * (90 - elevation) * hpixel;
-        int x = (int) ((mContentWidth / 2.0) + xoff - mScrollOffsetX);
-        int y = (int) ((mContentHeight / 2.0) + yoff - mScrollOffsetY);
-        return new int[]{x, y};
+        double r = (90 - elevation) * mHPixel;
+        xy[offset] = (float) (mCenterX + Math.sin(azimuthRad) * r);
+        xy[offset + 1] = (float) (mCenterY + Math.cos(azimuthRad) * r);
     }
 
-    public int[] horizontal2area(double[] azEle)
+    /**
+     * Convert count points (azimuth, elevation) stored one after another in
+     * azEle, starting at point offset, to paint area
+     * Writes (x, y) of the i-th point into xy[2 * i], xy[2 * i + 1]
+     */
+    public void horizontal2area(double[] azEle, int offset, int count, float[] xy)
     {
-        return horizontal2area(azEle[0], azEle[1]);
+        for (int i = 0; i < count * 2; i += 2)
+        {
+            double azimuthRad = Math.toRadians(azEle[offset * 2 + i]);
+            double r = (90 - azEle[offset * 2 + i + 1]) * mHPixel;
+            xy[i] = (float) (mCenterX + Math.sin(azimuthRad) * r);
+            xy[i + 1] = (float) (mCenterY + Math.cos(azimuthRad) * r);
+        }
     }
 
     /**
@@ -121,9 +376,8 @@ public class DrawArea extends View
      */
     public double[] area2horizontal(float x, float y)
     {
-        double hpixel = (mSize * mScaleFactor) / 2.0 / 90.0;
-        double xoff = x - (mContentWidth / 2.0) + mScrollOffsetX;
-        double yoff = y - (mContentHeight / 2.0) + mScrollOffsetY;
+        double xoff = x - mCenterX;
+        double yoff = y - mCenterY;
         double hy = Math.sqrt(xoff*xoff + yoff*yoff);
         double az = Math.toDegrees(Math.asin(xoff / hy));
         if (yoff < 0)
@@ -134,7 +388,7 @@ public class DrawArea extends View
         {
             az = 360 + az;
         }
-        double ele = (90 - (hy / hpixel));
+        double ele = (90 - (hy / mHPixel));
         return new double[]{az, ele};
     }
 
@@ -177,6 +431,20 @@ public class DrawArea extends View
 
     private class ScaleListener extends ScaleGestureDetector.SimpleOnScaleGestureListener
     {
+        @Override
+        public boolean onScaleBegin(ScaleGestureDetector detector)
+        {
+            mIsScaling = true;
+            return true;
+        }
+
+        @Override
+        public void onScaleEnd(ScaleGestureDetector detector)
+        {
+            mIsScaling = false;
+            invalidate();
+        }
+
         @Override
         public boolean onScale(ScaleGestureDetector detector)
         {
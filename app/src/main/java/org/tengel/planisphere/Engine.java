@@ -18,60 +18,438 @@
 package org.tengel.planisphere;
 
 import android.app.Activity;
-import android.graphics.Point;
+import android.os.Handler;
+import android.os.Looper;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.GregorianCalendar;
-import java.util.LinkedHashSet;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
-import java.util.TimeZone;
-import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Calculates the chart in a worker thread. The chart objects are kept in two
+ * buffers: while the objects of one buffer are drawn, the other buffer is
+ * updated. A finished buffer is published as an immutable Snapshot on the
+ * main thread, the previously published buffer is then free for the next
+ * update.
+ */
 public class Engine {
-    private Catalog mCatalog;
-    private Vector<ChartObject> mObjects = new Vector<ChartObject>();
+    public interface Listener
+    {
+        /**
+         * Called on the main thread when a new snapshot is published. The
+         * snapshot is valid until the next call, its chart objects must not
+         * be referenced after that, see ObjectInfo.
+         */
+        void snapshotPublished(Snapshot snapshot);
+
+        /**
+         * Called on the main thread with the result of calcNightEvents().
+         */
+        void nightEventsCalculated(List<NightEvents.Event> events);
+    }
+
+    /**
+     * Result of an update, the chart objects are not modified as long as the
+     * snapshot is published.
+     */
+    public static class Snapshot
+    {
+        private final List<ChartObject> mObjects;
+        private final GregorianCalendar mTime;
+        private final double mLatitude;
+        private final double mLongitude;
+
+        private Snapshot(List<ChartObject> objects, GregorianCalendar time,
+                         double latitude, double longitude)
+        {
+            mObjects = Collections.unmodifiableList(objects);
+            mTime = time;
+            mLatitude = latitude;
+            mLongitude = longitude;
+        }
+
+        public List<ChartObject> getObjects()
+        {
+            return mObjects;
+        }
+
+        public GregorianCalendar getTime()
+        {
+            return mTime;
+        }
+    }
+
+    /**
+     * Parameters of an update, taken on the main thread. The worker thread
+     * does not access the Settings.
+     */
+    private static class Request
+    {
+        GregorianCalendar time;
+        double latitude;
+        double longitude;
+        boolean isGpsPos;
+        boolean isAnimation;
+        int generation;
+        int style;
+        float fontScale;
+        int maxMagnitude;
+        int constLanguage;
+        boolean isConstLinesEnabled;
+        boolean isConstNamesEnabled;
+        boolean isConstBoundEnabled;
+        boolean isStarsEnabled;
+        boolean isStarNamesEnabled;
+        boolean isSolarSystemEnabled;
+        boolean isSolarNamesEnabled;
+        boolean isOnlyVisiblePlanets;
+        boolean isAzGridEnabled;
+        boolean isEqGridEnabled;
+        boolean isHorizonEnabled;
+        boolean isEquatorEnabled;
+        boolean isEclipticEnabled;
+    }
+
+    /**
+     * The chart objects of one buffer, only accessed by the worker thread
+     * until the buffer is published.
+     */
+    private static class Buffer
+    {
+        ArrayList<ChartObject> chartObjects = new ArrayList<>();
+        ArrayList<ChartObject> objects = new ArrayList<>();
+        InfoText infoText;
+        int generation;
+        int invalidations = -1;
+    }
+
+    static final double SOLAR_SYSTEM_INTERVAL = 10 / 1440.0; // days of chart time
+    private static final double NIGHT_EVENTS_MAX_MAGNITUDE = 1.5; // first magnitude stars
+    private volatile Catalog mCatalog;
+    private volatile ConstellationDb mConstDb;
+    private volatile int mInvalidations = 0;
     private Activity mActivity;
     private Settings mSettings;
+    private Listener mListener;
+    private Handler mHandler = new Handler(Looper.getMainLooper());
+    private ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private AtomicReference<Request> mPendingRequest = new AtomicReference<>();
+    private BlockingQueue<Buffer> mFreeBuffers = new ArrayBlockingQueue<>(2);
+
+    // translated names, taken from the settings in the constructor
+    private final HashMap<String, String> mNames;
+
+    // main thread
+    private double mRequestLatitude;
+    private double mRequestLongitude;
+    private boolean mRequestIsGpsPos;
+    private boolean mRequestIsAnimation = false;
+    private Buffer mPublishedBuffer;
+    private Snapshot mSnapshot;
+    private RiseSetCache mRiseSetCache = new RiseSetCache();
+
+    // thread running the update
     private double mLatitude;
+    private double mSinLatitude;
+    private double mCosLatitude;
     private double mLongitude;
-    private boolean mIsGpsPos;
     private GregorianCalendar mTime;
+    private double mJulianDate;
+    private boolean mIsAnimation;
     private double mLocalSiderealTime;
-    private ConstellationDb mConstDb;
+    private double[] mEqua2Hori = new double[9]; // rotation matrix
+    private double[] mSinCos = new double[4];    // scratch of equatorial2horizontal()
+    private Planet mEarth = new Earth();
+    private double mEarthJd = Double.NaN;
+    private PaintPool mPaintPool;
+
+    private Runnable mUpdateTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            Request request = mPendingRequest.getAndSet(null);
+            if (request == null)
+            {
+                return;
+            }
+            final Buffer buffer;
+            try
+            {
+                buffer = mFreeBuffers.take();
+            }
+            catch (InterruptedException e)
+            {
+                return; // shutdown()
+            }
+            final Snapshot snapshot = calculate(request, buffer);
+            mHandler.post(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    publish(buffer, snapshot);
+                }
+            });
+        }
+    };
 
 
-    public Engine(Activity activity, Settings settings, Catalog catalog,
-                  ConstellationDb constDb)
+    public Engine(Activity activity, Settings settings)
     {
         mActivity = activity;
         mSettings = settings;
+        mNames = settings.copyTranslations();
+        mPaintPool = new PaintPool(settings,
+                                   activity.getResources().getDimension(R.dimen.horizon_width));
+        mFreeBuffers.add(new Buffer());
+        mFreeBuffers.add(new Buffer());
+    }
+
+    public void setListener(Listener listener)
+    {
+        mListener = listener;
+    }
+
+    /**
+     * Stars are only shown after the catalog is set.
+     */
+    public void setCatalog(Catalog catalog)
+    {
         mCatalog = catalog;
+        invalidate();
+    }
+
+    /**
+     * Constellations are only shown after the constellation database and the
+     * catalog are set.
+     */
+    public void setConstellationDb(ConstellationDb constDb)
+    {
         mConstDb = constDb;
+        invalidate();
     }
 
     public void setLocation(double lat, double lon, boolean isGpsPos)
     {
-        mLatitude = lat;
-        mLongitude = lon;
-        mIsGpsPos = isGpsPos;
+        mRequestLatitude = lat;
+        mRequestLongitude = lon;
+        mRequestIsGpsPos = isGpsPos;
     }
 
+    /**
+     * While the chart is animated, the positions of the solar system objects
+     * are only calculated again after SOLAR_SYSTEM_INTERVAL of chart time,
+     * the stars are only rotated for the new sidereal time.
+     */
+    public void setAnimation(boolean isAnimation)
+    {
+        mRequestIsAnimation = isAnimation;
+    }
+
+    /**
+     * Time of the running update, only valid in ChartObject.update().
+     */
     public GregorianCalendar getTime()
     {
         return mTime;
     }
 
     /**
-     * Return azimut, elevation
+     * Julian date of getTime(), only valid in ChartObject.update().
+     */
+    double getJulianDate()
+    {
+        return mJulianDate;
+    }
+
+    /**
+     * Returns true if the equatorial position of a solar system object,
+     * calculated for the julian date jd, is outdated for the running update.
+     */
+    boolean isPositionOutdated(double jd)
+    {
+        if (mIsAnimation)
+        {
+            return !(Math.abs(mJulianDate - jd) < SOLAR_SYSTEM_INTERVAL);
+        }
+        return jd != mJulianDate;
+    }
+
+    /**
+     * Heliocentric position of the earth for getTime(), only valid in
+     * ChartObject.update().
+     */
+    Planet getEarth()
+    {
+        if (mEarthJd != mJulianDate)
+        {
+            mEarth.calcHeliocentric(mJulianDate);
+            mEarthJd = mJulianDate;
+        }
+        return mEarth;
+    }
+
+    /**
+     * Paints for the chart objects, only used in their constructors.
+     */
+    PaintPool getPaintPool()
+    {
+        return mPaintPool;
+    }
+
+    /**
+     * Writes azimut, elevation into azEle
+     */
+    public void equatorial2horizontal(double rightAscension, double declination,
+                                      double[] azEle)
+    {
+        double hourAngle = Math.toRadians((mLocalSiderealTime - rightAscension) * 15.0);
+        Astro.geoEqua2geoHoriRad(mSinLatitude, mCosLatitude, hourAngle,
+                                 Math.toRadians(declination), azEle, 0);
+    }
+
+    /**
+     * Writes azimut, elevation of the equatorial unit vector at
+     * vectors[offset] into azEle, with the approximations of FastMath
+     */
+    public void equatorial2horizontal(double[] vectors, int offset, double[] azEle)
+    {
+        Astro.unitVector2geoHori(mEqua2Hori, vectors, offset, azEle, true);
+    }
+
+    /**
+     * Returns the sine of the elevation of the equatorial unit vector at
+     * vectors[offset], its dot product with the zenith.
      */
-    public double[] equatorial2horizontal(double rightAscension, double declination)
+    public double sinElevation(double[] vectors, int offset)
     {
-        double hourAngle = (mLocalSiderealTime - rightAscension) * 15.0;
-        return Astro.geoEqua2geoHori(hourAngle, mLatitude, declination);
+        return mEqua2Hori[6] * vectors[offset] + mEqua2Hori[7] * vectors[offset + 1] +
+               mEqua2Hori[8] * vectors[offset + 2];
     }
 
+    /**
+     * Converts count points starting at point offset, writes azimut,
+     * elevation of point i into azEle[2 * i], azEle[2 * i + 1], with the
+     * approximations of FastMath
+     */
+    public void equatorial2horizontal(double[] rightAscension, double[] declination,
+                                      int offset, int count, double[] azEle)
+    {
+        Astro.geoEqua2geoHori(mLocalSiderealTime, mLatitude, rightAscension, declination,
+                              offset, count, azEle, true, mSinCos);
+    }
+
+    /**
+     * Force recreation of the chart objects on the next update().
+     */
+    public void invalidate()
+    {
+        ++mInvalidations;
+    }
+
+    /**
+     * Request an update for the current time and location. The chart is
+     * calculated in a worker thread and published to the listener. Requests
+     * which arrive while an update is running are combined into one update
+     * with the latest time. Ignored after shutdown().
+     */
     public void update()
     {
-        mTime = mSettings.getCurrentTime();
+        if (mExecutor.isShutdown())
+        {
+            return;
+        }
+        if (mPendingRequest.getAndSet(createRequest()) == null)
+        {
+            mExecutor.execute(mUpdateTask);
+        }
+    }
+
+    /**
+     * Calculate the chart in the calling thread without publishing it. The
+     * snapshot is only valid until the next call. Must not be mixed with
+     * update(), used for benchmarks.
+     */
+    Snapshot updateNow()
+    {
+        Buffer buffer = mFreeBuffers.remove();
+        Snapshot snapshot = calculate(createRequest(), buffer);
+        mFreeBuffers.add(buffer);
+        return snapshot;
+    }
+
+    /**
+     * Stop the worker thread, pending updates are discarded.
+     */
+    public void shutdown()
+    {
+        mListener = null;
+        mExecutor.shutdownNow();
+    }
+
+    private Request createRequest()
+    {
+        Request r = new Request();
+        r.time = (GregorianCalendar) mSettings.getCurrentTime().clone();
+        r.latitude = mRequestLatitude;
+        r.longitude = mRequestLongitude;
+        r.isGpsPos = mRequestIsGpsPos;
+        r.isAnimation = mRequestIsAnimation;
+        r.generation = mSettings.getGeneration();
+        r.style = mSettings.getStyle();
+        r.fontScale = mSettings.getFontScale();
+        r.maxMagnitude = mSettings.getMaxMagnitude();
+        r.constLanguage = ConstellationDb.resolveLanguage(mSettings.getConstLanguage(),
+                                                          mSettings.getLanguage());
+        r.isConstLinesEnabled = mSettings.isConstLinesEnabled();
+        r.isConstNamesEnabled = mSettings.isConstNamesEnabled();
+        r.isConstBoundEnabled = mSettings.isConstBoundEnabled();
+        r.isStarsEnabled = mSettings.isStarsEnabled();
+        r.isStarNamesEnabled = mSettings.isStarNamesEnabled();
+        r.isSolarSystemEnabled = mSettings.isSolarSystemEnabled();
+        r.isSolarNamesEnabled = mSettings.isSolarNamesEnabled();
+        r.isOnlyVisiblePlanets = mSettings.getOnlyVisiblePlanets();
+        r.isAzGridEnabled = mSettings.isAzGridEnabled();
+        r.isEqGridEnabled = mSettings.isEqGridEnabled();
+        r.isHorizonEnabled = mSettings.isHorizonEnabled();
+        r.isEquatorEnabled = mSettings.isEquatorEnabled();
+        r.isEclipticEnabled = mSettings.isEclipticEnabled();
+        return r;
+    }
+
+    private void publish(Buffer buffer, Snapshot snapshot)
+    {
+        Buffer previous = mPublishedBuffer;
+        mPublishedBuffer = buffer;
+        mSnapshot = snapshot;
+        if (mListener != null)
+        {
+            mListener.snapshotPublished(snapshot);
+        }
+        if (previous != null)
+        {
+            mFreeBuffers.add(previous);
+        }
+    }
+
+    private Snapshot calculate(Request request, Buffer buffer)
+    {
+        mTime = request.time;
+        mJulianDate = Astro.julian_date(mTime);
+        mIsAnimation = request.isAnimation;
+        mLatitude = request.latitude;
+        mSinLatitude = Math.sin(Math.toRadians(mLatitude));
+        mCosLatitude = Math.cos(Math.toRadians(mLatitude));
+        mLongitude = request.longitude;
         double utcHour = mTime.get(Calendar.HOUR_OF_DAY) +
                          (mTime.get(Calendar.MINUTE) / 60.0) +
                          (mTime.get(Calendar.SECOND) / 60.0 / 60.0) -
@@ -80,86 +458,128 @@ public class Engine {
         double siderealTime = Astro.sidereal_time(mTime.get(Calendar.YEAR), mTime.get(Calendar.MONTH) + 1,
                                                   mTime.get(Calendar.DAY_OF_MONTH), utcHour);
         mLocalSiderealTime = siderealTime + (mLongitude / 15.0); // in h
-        mObjects.clear();
-        int maxMagnitude = Settings.instance().getMaxMagnitude();
+        Astro.equa2horiMatrix(mLocalSiderealTime, mLatitude, mEqua2Hori);
+        int maxMagnitude = request.maxMagnitude;
+
+        if (buffer.invalidations != mInvalidations ||
+            buffer.generation != request.generation)
+        {
+            createObjects(buffer, request);
+        }
+
+        buffer.objects.clear();
+        for (ChartObject co : buffer.chartObjects)
+        {
+            co.update();
+            if (co.isDisplayed())
+            {
+                buffer.objects.add(co);
+            }
+        }
+
+        Calendar utcTime = (Calendar) mTime.clone();
+        utcTime.add(Calendar.MILLISECOND,
+                    -(mTime.get(Calendar.DST_OFFSET) + mTime.get(Calendar.ZONE_OFFSET)));
+        String s = String.format(Locale.ROOT,
+                "%04d-%02d-%02d  %02d:%02d %s  %02d:%02d UTC  %.2f; %.2f GPS: %d  Mag: %d",
+                mTime.get(Calendar.YEAR), (mTime.get(Calendar.MONTH) + 1),
+                mTime.get(Calendar.DAY_OF_MONTH), mTime.get(Calendar.HOUR_OF_DAY),
+                mTime.get(Calendar.MINUTE), mTime.getTimeZone().getID(),
+                utcTime.get(Calendar.HOUR_OF_DAY), utcTime.get(Calendar.MINUTE),
+                mLatitude, mLongitude, request.isGpsPos? 1 : 0, maxMagnitude);
+        buffer.infoText.setText(s);
+        return new Snapshot(buffer.objects, mTime, mLatitude, mLongitude);
+    }
+
+    /**
+     * Create the chart objects of a buffer for the settings of the request.
+     * The horizontal coordinates are calculated in calculate().
+     */
+    private void createObjects(Buffer buffer, Request request)
+    {
+        buffer.generation = request.generation;
+        buffer.invalidations = mInvalidations;
+        mPaintPool.update(request.style, request.fontScale);
+        ArrayList<ChartObject> chartObjects = buffer.chartObjects;
+        chartObjects.clear();
+        Catalog catalog = mCatalog;
+        ConstellationDb constDb = mConstDb;
+        int maxMagnitude = request.maxMagnitude;
         ConstBoundaries boundaries = null;
-        Planet.sEarth.calcHeliocentric(mTime);
+        boolean isConstDbLoaded = constDb != null && catalog != null;
 
-        if (mSettings.isConstLinesEnabled() || mSettings.isConstNamesEnabled() ||
-            mSettings.isConstBoundEnabled())
+        if (isConstDbLoaded &&
+            (request.isConstLinesEnabled || request.isConstNamesEnabled ||
+             request.isConstBoundEnabled))
         {
-            boundaries = new ConstBoundaries(this, mConstDb, mSettings.isConstBoundEnabled());
-            mObjects.add(boundaries);
+            boundaries = new ConstBoundaries(this, constDb, request.isConstBoundEnabled);
+            chartObjects.add(boundaries);
         }
-        if (mSettings.isConstLinesEnabled() || mSettings.isConstNamesEnabled())
+        if (isConstDbLoaded &&
+            (request.isConstLinesEnabled || request.isConstNamesEnabled))
         {
-            mObjects.add(new ConstLines(this, mConstDb, boundaries, mSettings.isConstLinesEnabled(),
-                                        mSettings.isConstNamesEnabled()));
+            chartObjects.add(new ConstLines(this, constDb, boundaries,
+                                            request.isConstLinesEnabled,
+                                            request.isConstNamesEnabled,
+                                            request.constLanguage));
         }
-        if (mSettings.isStarsEnabled())
+        if (catalog != null && request.isStarsEnabled)
         {
-            for (Catalog.Entry e : mCatalog.get())
+            int count = catalog.countBrighterThan(maxMagnitude);
+            ArrayList<Star> stars = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i)
             {
-                if (e.apparentMagnitude > maxMagnitude)
-                {
-                    continue;
-                }
-                mObjects.add(new Star(this, e, mSettings.isStarNamesEnabled()));
+                stars.add(new Star(this, catalog, i, request.isStarNamesEnabled));
             }
+            chartObjects.addAll(stars);
+            chartObjects.add(new StarField(this, stars));
         }
-        if (mSettings.isSolarSystemEnabled())
+        if (request.isSolarSystemEnabled)
         {
-            for (Planet p : Planet.sPlanets)
+            if (Planet.sPlanets != null)
             {
-                p.calcHeliocentric(mTime);
-                p.calcGeocentric(Planet.sEarth);
-                ChartPlanet cp = new ChartPlanet(this, p, mSettings.isSolarNamesEnabled());
-                if (mSettings.getOnlyVisiblePlanets() == false ||
-                    (p.mApparentMagnitude <= maxMagnitude && cp.mAzEle[1] >= 0))
+                // each buffer has its own planets, the positions are stored in the planet
+                for (Planet p : Planet.createPlanets())
                 {
-                    mObjects.add(cp);
+                    chartObjects.add(new ChartPlanet(this, p, mNames.get(p.mName),
+                                                     request.isSolarNamesEnabled,
+                                                     request.isOnlyVisiblePlanets,
+                                                     maxMagnitude));
                 }
             }
-            mObjects.add(new Sun(this, mSettings.isSolarNamesEnabled()));
-            mObjects.add(new Moon(this, mSettings.isSolarNamesEnabled()));
+            chartObjects.add(new Sun(this, mNames.get("Sun"), request.isSolarNamesEnabled));
+            chartObjects.add(new Moon(this, mNames.get("Moon"), request.isSolarNamesEnabled));
         }
-        if (mSettings.isAzGridEnabled())
+        if (request.isAzGridEnabled)
         {
-            mObjects.add(new AzGrid(this));
+            chartObjects.add(new AzGrid(this));
         }
-        if (mSettings.isEqGridEnabled())
+        if (request.isEqGridEnabled)
         {
-            mObjects.add(new EqGrid(this));
+            chartObjects.add(new EqGrid(this));
         }
-        if (mSettings.isHorizonEnabled())
+        if (request.isHorizonEnabled)
         {
-            mObjects.add(new Horizon(this));
+            chartObjects.add(new Horizon(this));
         }
-        if (mSettings.isEquatorEnabled())
+        if (request.isEquatorEnabled)
         {
-            mObjects.add(new Equator(this));
+            chartObjects.add(new Equator(this));
         }
-        if (mSettings.isEclipticEnabled())
+        if (request.isEclipticEnabled)
         {
-            mObjects.add(new Ecliptic(this));
+            chartObjects.add(new Ecliptic(this));
         }
-
-        Calendar utcTime = (Calendar) mTime.clone();
-        utcTime.add(Calendar.MILLISECOND,
-                    -(mTime.get(Calendar.DST_OFFSET) + mTime.get(Calendar.ZONE_OFFSET)));
-        String s = String.format(Locale.ROOT,
-                "%04d-%02d-%02d  %02d:%02d %s  %02d:%02d UTC  %.2f; %.2f GPS: %d  Mag: %d",
-                mTime.get(Calendar.YEAR), (mTime.get(Calendar.MONTH) + 1),
-                mTime.get(Calendar.DAY_OF_MONTH), mTime.get(Calendar.HOUR_OF_DAY),
-                mTime.get(Calendar.MINUTE), mTime.getTimeZone().getID(),
-                utcTime.get(Calendar.HOUR_OF_DAY), utcTime.get(Calendar.MINUTE),
-                mLatitude, mLongitude, mIsGpsPos? 1 : 0, maxMagnitude);
-        mObjects.add(new InfoText(this, s));
+        buffer.infoText = new InfoText(this, "");
+        chartObjects.add(buffer.infoText);
     }
 
-    public Vector<ChartObject> getObjects()
+    /**
+     * The last published snapshot, null before the first update.
+     */
+    public Snapshot getSnapshot()
     {
-        return mObjects;
+        return mSnapshot;
     }
 
     public Activity getActivity()
@@ -167,128 +587,186 @@ public class Engine {
         return mActivity;
     }
 
-    public ChartObject[] findObjectsNear(float chartX, float chartY)
+    public String calcRise(int catalogIdx, boolean localTime)
     {
-        Point displaySize = new Point();
-        mActivity.getWindowManager().getDefaultDisplay().getSize(displaySize);
-        int distanceMax = Math.max(displaySize.x, displaySize.y) / 2;
-        int distanceInc = distanceMax / 200;
-        LinkedHashSet<ChartObject> objects = new LinkedHashSet<>();
-        double distance = distanceInc;
-        while (objects.size() < 10 && distance < distanceMax)
-        {
-            for (ChartObject co : mObjects)
-            {
-                if (co.getType() != ObjectType.OTHER &&
-                    co.getChartX() >= chartX - distance &&
-                    co.getChartX() <= chartX + distance &&
-                    co.getChartY() >= chartY - distance &&
-                    co.getChartY() <= chartY + distance)
-                {
-                    objects.add(co);
-                }
-            }
-            distance += distanceInc;
-        }
-        return objects.toArray(new ChartObject[0]);
+        return calcRiseSet(catalogIdx, localTime, true);
     }
 
-    public String calcRise(Catalog.Entry ce, boolean localTime)
+    public String calcSet(int catalogIdx, boolean localTime)
     {
-        Calendar c = Astro.calcRiseSet_star(mLongitude, mLatitude, mTime,
-                                            ce.rightAscension, ce.declination,
-                                            true);
-        if (localTime && c != null)
-        {
-            c.setTimeZone(TimeZone.getDefault());
-        }
-        return Astro.formatCal(c);
+        return calcRiseSet(catalogIdx, localTime, false);
     }
 
-    public String calcSet(Catalog.Entry ce, boolean localTime)
+    private String calcRiseSet(final int catalogIdx, boolean localTime, final boolean isRise)
     {
-        Calendar c = Astro.calcRiseSet_star(mLongitude, mLatitude, mTime,
-                                            ce.rightAscension, ce.declination,
-                                            false);
-        if (localTime && c != null)
+        final Snapshot snapshot = mSnapshot;
+        final Catalog catalog = mCatalog;
+        return mRiseSetCache.get("star " + catalogIdx, isRise ? "rise" : "set",
+                                 snapshot.mTime, snapshot.mLatitude, snapshot.mLongitude,
+                                 localTime, new RiseSetCache.Calculator()
         {
-            c.setTimeZone(TimeZone.getDefault());
-        }
-        return Astro.formatCal(c);
+            @Override
+            public Calendar calc()
+            {
+                return Astro.calcRiseSet_star(snapshot.mLongitude, snapshot.mLatitude,
+                                              snapshot.mTime,
+                                              catalog.getRightAscension(catalogIdx),
+                                              catalog.getDeclination(catalogIdx), isRise);
+            }
+        });
     }
 
-    public String calcRise(Planet p, boolean localTime)
+    public String calcRise(String planetName, boolean localTime)
     {
-        Calendar c = Kepler.calcRiseSet_planet(mLongitude, mLatitude, mTime,
-                                               p, true);
-        if (localTime && c != null)
-        {
-            c.setTimeZone(TimeZone.getDefault());
-        }
-        return Astro.formatCal(c);
+        return calcRiseSet(planetName, localTime, true);
+    }
+
+    public String calcSet(String planetName, boolean localTime)
+    {
+        return calcRiseSet(planetName, localTime, false);
     }
 
-    public String calcSet(Planet p, boolean localTime)
+    private String calcRiseSet(final String planetName, boolean localTime,
+                               final boolean isRise)
     {
-        Calendar c = Kepler.calcRiseSet_planet(mLongitude, mLatitude, mTime,
-                                               p, false);
-        if (localTime && c != null)
+        final Snapshot snapshot = mSnapshot;
+        return mRiseSetCache.get(planetName, isRise ? "rise" : "set",
+                                 snapshot.mTime, snapshot.mLatitude, snapshot.mLongitude,
+                                 localTime, new RiseSetCache.Calculator()
         {
-            c.setTimeZone(TimeZone.getDefault());
-        }
-        return Astro.formatCal(c);
+            @Override
+            public Calendar calc()
+            {
+                return Kepler.calcRiseSet_planet(snapshot.mLongitude, snapshot.mLatitude,
+                                                 snapshot.mTime, planetName, isRise);
+            }
+        });
     }
 
-    public String calcRiseSetSun(boolean localTime, RiseSetType type)
+    public String calcRiseSetSun(boolean localTime, final RiseSetType type)
     {
-        Calendar c = Astro.calcRiseSet_sun(mLongitude, mLatitude, mTime, type);
-        if (localTime && c != null)
+        final Snapshot snapshot = mSnapshot;
+        return mRiseSetCache.get("sun", type.name(),
+                                 snapshot.mTime, snapshot.mLatitude, snapshot.mLongitude,
+                                 localTime, new RiseSetCache.Calculator()
         {
-            c.setTimeZone(TimeZone.getDefault());
-        }
-        return Astro.formatCal(c);
+            @Override
+            public Calendar calc()
+            {
+                return Astro.calcRiseSet_sun(snapshot.mLongitude, snapshot.mLatitude,
+                                             snapshot.mTime, type);
+            }
+        });
     }
 
     public String calcRiseMoon(boolean localTime)
     {
-        Calendar c = Astro.calcRiseSet_moon(mLongitude, mLatitude, mTime, true);
-        if (localTime && c != null)
-        {
-            c.setTimeZone(TimeZone.getDefault());
-        }
-        return Astro.formatCal(c);
+        return calcRiseSetMoon(localTime, true);
     }
 
     public String calcSetMoon(boolean localTime)
     {
-        Calendar c = Astro.calcRiseSet_moon(mLongitude, mLatitude, mTime, false);
-        if (localTime && c != null)
+        return calcRiseSetMoon(localTime, false);
+    }
+
+    private String calcRiseSetMoon(boolean localTime, final boolean isRise)
+    {
+        final Snapshot snapshot = mSnapshot;
+        return mRiseSetCache.get("moon", isRise ? "rise" : "set",
+                                 snapshot.mTime, snapshot.mLatitude, snapshot.mLongitude,
+                                 localTime, new RiseSetCache.Calculator()
         {
-            c.setTimeZone(TimeZone.getDefault());
-        }
-        return Astro.formatCal(c);
+            @Override
+            public Calendar calc()
+            {
+                return Astro.calcRiseSet_moon(snapshot.mLongitude, snapshot.mLatitude,
+                                              snapshot.mTime, isRise);
+            }
+        });
     }
 
     public String nextFullMoon()
     {
-        double jd = Astro.nextFullMoon(Astro.julian_date(mTime));
+        double jd = mRiseSetCache.getFullMoons(Astro.julian_date(mSnapshot.mTime))[1];
         return Astro.jd2str(jd, true);
     }
 
     public String nextNewMoon()
     {
-        double jd = Astro.nextNewMoon(Astro.julian_date(mTime));
+        double jd = mRiseSetCache.getNewMoons(Astro.julian_date(mSnapshot.mTime))[1];
         return Astro.jd2str(jd, true);
     }
     public String prevFullMoon()
     {
-        double jd = Astro.prevFullMoon(Astro.julian_date(mTime));
+        double jd = mRiseSetCache.getFullMoons(Astro.julian_date(mSnapshot.mTime))[0];
         return Astro.jd2str(jd, true);
     }
 
     public String prevNewMoon()
     {
-        double jd = Astro.prevNewMoon(Astro.julian_date(mTime));
+        double jd = mRiseSetCache.getNewMoons(Astro.julian_date(mSnapshot.mTime))[0];
         return Astro.jd2str(jd, true);
     }
+
+    /**
+     * Calculate the rise, set and culmination of the first magnitude stars
+     * and of the solar system objects, and the twilight times, of the night
+     * of the published snapshot in the worker thread. The events are passed
+     * to the listener sorted by time. Ignored without snapshot or after
+     * shutdown().
+     */
+    void calcNightEvents()
+    {
+        Snapshot snapshot = mSnapshot;
+        if (snapshot == null || mExecutor.isShutdown())
+        {
+            return;
+        }
+        final GregorianCalendar time = (GregorianCalendar) snapshot.mTime.clone();
+        final double latitude = snapshot.mLatitude;
+        final double longitude = snapshot.mLongitude;
+        final Catalog catalog = mCatalog;
+        final String sunName = mSettings.translateName("Sun");
+        final String moonName = mSettings.translateName("Moon");
+        final ArrayList<String> planets = new ArrayList<>();
+        final ArrayList<String> planetNames = new ArrayList<>();
+        if (Planet.sPlanets != null)
+        {
+            for (Planet p : Planet.sPlanets)
+            {
+                planets.add(p.mName);
+                planetNames.add(mSettings.translateName(p.mName));
+            }
+        }
+        mExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                NightEvents nightEvents = new NightEvents(time, latitude, longitude);
+                nightEvents.addSun(sunName);
+                nightEvents.addMoon(moonName);
+                for (int i = 0; i < planets.size(); ++i)
+                {
+                    nightEvents.addPlanet(planetNames.get(i), planets.get(i));
+                }
+                if (catalog != null)
+                {
+                    nightEvents.addStars(catalog, NIGHT_EVENTS_MAX_MAGNITUDE);
+                }
+                final List<NightEvents.Event> events = nightEvents.getEvents();
+                mHandler.post(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        if (mListener != null)
+                        {
+                            mListener.nightEventsCalculated(events);
+                        }
+                    }
+                });
+            }
+        });
+    }
 }
@@ -30,42 +30,194 @@ package org.tengel.planisphere;
 
 import java.util.Calendar;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class Kepler
 {
+    private static final int EARTH_CACHE_SIZE = 64;
+
+    // heliocentric position of the earth (lon, lat, distance) per julian date
+    private static final LinkedHashMap<Double, double[]> sEarthCache =
+        new LinkedHashMap<Double, double[]>(EARTH_CACHE_SIZE, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Double, double[]> eldest)
+            {
+                return size() > EARTH_CACHE_SIZE;
+            }
+        };
+
+    // planets of each thread for the rise/set calculations, by name
+    private static final ThreadLocal<HashMap<String, Planet>> sScratchPlanets =
+        new ThreadLocal<HashMap<String, Planet>>()
+        {
+            @Override
+            protected HashMap<String, Planet> initialValue()
+            {
+                return new HashMap<>();
+            }
+        };
+
+    // solver of the Kepler equation
+    private static final int MAX_ITERATIONS = 8;
+    // the Halley iteration converges cubically, after a step of this size
+    // the error is below 1e-12 radian
+    private static final double LAST_STEP = 1e-6;       // radian
+    private static final double SERIES_ECCENTRICITY = 0.3;
+    // below, the series start is faster than the table lookup
+    static final double TABLE_ECCENTRICITY = 0.05;
+
     /**
-     * Calculates the eccentric anomaly in degrees from mean anomaly and
-     * eccentricity. Calculation is done iteratively until the precision of
-     * epsilon is reached.
+     * Eccentric anomalies of one eccentricity at equidistant mean anomalies
+     * in [0, pi], interpolated as starting value of the solver. A table is
+     * only used while the eccentricity is close to the one it was built for,
+     * see calcEccentricAnomaly().
+     */
+    static class StarterTable
+    {
+        static final int SIZE = 64;
+        static final double MAX_ECCENTRICITY_CHANGE = 0.001;
+        private double mEccentricity = Double.NaN;
+        private double[] mE = new double[SIZE + 1];
+
+        /**
+         * Returns false if the table is not usable for the eccentricity.
+         */
+        boolean isValid(double eccentricity)
+        {
+            return Math.abs(eccentricity - mEccentricity) <= MAX_ECCENTRICITY_CHANGE;
+        }
+
+        void build(double eccentricity)
+        {
+            for (int i = 0; i <= SIZE; ++i)
+            {
+                mE[i] = solve(Math.PI * i / SIZE, eccentricity, null);
+            }
+            mEccentricity = eccentricity;
+        }
+
+        /**
+         * Linear interpolation for the mean anomaly m in [0, pi].
+         */
+        double get(double m)
+        {
+            double x = m * SIZE / Math.PI;
+            int i = Math.min((int) x, SIZE - 1);
+            return mE[i] + (x - i) * (mE[i + 1] - mE[i]);
+        }
+    }
+
+    /**
+     * Calculates the eccentric anomaly in degrees from mean anomaly (degree)
+     * and eccentricity, see calcEccentricAnomalyRad().
      */
     public static double calcEccentricAnomaly(double meanAnomaly, double eccentricity)
     {
-        double epsilon = 0.00001;
-        double E = meanAnomaly;
-        double Enext;
-        while(true)
-        {
-            Enext = (E -
-                     ((meanAnomaly - E + (180/Math.PI) * eccentricity * Astro.sin(E)) /
-                      (eccentricity * Astro.cos(E) - 1)));
-            if (Math.abs(E - Enext) < epsilon)
+        return Math.toDegrees(calcEccentricAnomalyRad(Math.toRadians(meanAnomaly),
+                                                      eccentricity, null));
+    }
+
+    /**
+     * Calculates the eccentric anomaly in degrees from mean anomaly (degree)
+     * and eccentricity, with the starting values of a table which is built
+     * again if the eccentricity changed. The table is not used below
+     * TABLE_ECCENTRICITY.
+     */
+    static double calcEccentricAnomaly(double meanAnomaly, double eccentricity,
+                                       StarterTable table)
+    {
+        if (eccentricity < TABLE_ECCENTRICITY)
+        {
+            return calcEccentricAnomaly(meanAnomaly, eccentricity);
+        }
+        if (!table.isValid(eccentricity))
+        {
+            table.build(eccentricity);
+        }
+        return Math.toDegrees(calcEccentricAnomalyRad(Math.toRadians(meanAnomaly),
+                                                      eccentricity, table));
+    }
+
+    /**
+     * Calculates the eccentric anomaly in radians from the mean anomaly
+     * (radian) and the eccentricity (0 <= e < 1) by solving the Kepler
+     * equation E - e * sin(E) = M. The result is in the same revolution as
+     * the mean anomaly.
+     *
+     * :param double meanAnomaly: Mean anomaly M (radian).
+     * :param double eccentricity: Eccentricity e.
+     * :param StarterTable table: Starting values for the eccentricity, or
+     * null.
+     */
+    static double calcEccentricAnomalyRad(double meanAnomaly, double eccentricity,
+                                          StarterTable table)
+    {
+        // the solution is periodic and odd in M, solve for M in [0, pi]
+        double revolution = 2 * Math.PI * Math.floor(meanAnomaly / (2 * Math.PI) + 0.5);
+        double m = meanAnomaly - revolution;
+        double sign = 1;
+        if (m < 0)
+        {
+            m = -m;
+            sign = -1;
+        }
+        return revolution + sign * solve(m, eccentricity, table);
+    }
+
+    /**
+     * Halley iteration for M in [0, pi], starting with the table, a third
+     * order series for small eccentricities or E = M + 0.85 * e (Danby). It
+     * converges within a few iterations for all e < 1, the number of
+     * iterations is limited to MAX_ITERATIONS.
+     */
+    private static double solve(double m, double eccentricity, StarterTable table)
+    {
+        double e = eccentricity;
+        double E;
+        if (table != null)
+        {
+            E = table.get(m);
+        }
+        else if (e < SERIES_ECCENTRICITY)
+        {
+            double sinM = Math.sin(m);
+            double cosM = Math.cos(m);
+            E = m + e * sinM * (1 + e * cosM + e * e * (1 - 1.5 * sinM * sinM));
+        }
+        else
+        {
+            E = m + 0.85 * e;
+        }
+        for (int i = 0; i < MAX_ITERATIONS; ++i)
+        {
+            double eSinE = e * Math.sin(E);
+            double eCosE = e * Math.cos(E);
+            double f = E - eSinE - m;
+            double df = 1 - eCosE;
+            double step = f / (df - 0.5 * f * eSinE / df);
+            E -= step;
+            if (Math.abs(step) < LAST_STEP)
             {
-                return Enext;
+                break;
             }
-            E = Enext;
         }
+        return E;
     }
 
 
     /**
-     * Calculate the true anomaly.
+     * Calculate the true anomaly in degrees from the eccentric anomaly
+     * (degree).
      */
     public static double calcTrueAnomaly(double eccentricity, double eccentricAnomaly)
     {
         double t, v;
         t = (Math.sqrt((1 + eccentricity) / (1 - eccentricity)) *
-             Astro.tan(eccentricAnomaly / 2));
-        v = Astro.atan(t) * 2;
+             Math.tan(Math.toRadians(eccentricAnomaly) / 2));
+        v = Math.toDegrees(Math.atan(t) * 2);
         if (v < 0)
         {
             return 360 + v;
@@ -78,15 +230,58 @@ public class Kepler
 
 
     /**
-     * Calculate the distance from the planet to the sun in AU.
+     * Calculate the distance from the planet to the sun in AU from the
+     * eccentric anomaly (degree).
      */
     public static double calcDistanceSun(double semiMajorAxis, double eccentricity,
                                          double eccentricAnomaly)
     {
-        return semiMajorAxis * (1 - eccentricity * Astro.cos(eccentricAnomaly));
+        return semiMajorAxis *
+               (1 - eccentricity * Math.cos(Math.toRadians(eccentricAnomaly)));
     }
 
 
+    /**
+     * Set the heliocentric position of earth for the julian date jd. The
+     * positions of the last requested dates are cached.
+     */
+    static void calcEarth(double jd, Planet earth)
+    {
+        synchronized (sEarthCache)
+        {
+            double[] pos = sEarthCache.get(jd);
+            if (pos == null)
+            {
+                earth.calcHeliocentric(jd);
+                sEarthCache.put(jd, new double[]{earth.mHelio_lon, earth.mHelio_lat,
+                                                 earth.mDistance_sun});
+            }
+            else
+            {
+                earth.mHelio_lon = pos[0];
+                earth.mHelio_lat = pos[1];
+                earth.mDistance_sun = pos[2];
+            }
+        }
+    }
+
+    /**
+     * Returns a planet of the calling thread to calculate positions in the
+     * rise/set calculations, the same instance is returned on each call
+     * with the name.
+     */
+    static Planet getScratchPlanet(String name)
+    {
+        HashMap<String, Planet> planets = sScratchPlanets.get();
+        Planet planet = planets.get(name);
+        if (planet == null)
+        {
+            planet = Planet.createPlanet(name);
+            planets.put(name, planet);
+        }
+        return planet;
+    }
+
     /**
      * Calculate the rise time (if calcRise is True) or the set time (if
      * calcRise is False) of a Planet.
@@ -94,26 +289,27 @@ public class Kepler
      * :param double longitude: Geographical longitude of observer (degree).
      * :param double latitude: Geographical latitude of observer (degree).
      * :param GregorianCalendar date: Date of rise/set.
-     * :param Planet planet: Planet object to use for calculation.
+     * :param String planetName: Name of the planet to calculate.
      * :param boolean calcRise: True to calculate rise time, False for set time.
      * :return: Returns the rise time or set time as Calendar set to UTC.
      */
     static Calendar calcRiseSet_planet(double longitude, double latitude,
-                                       final GregorianCalendar date,
-                                       final Planet planet, boolean calcRise)
+                                       GregorianCalendar date,
+                                       String planetName, boolean calcRise)
     {
         String objType = "planet";
         double elevation = -0.566667;
+        final Planet body = getScratchPlanet(planetName);
+        final Planet earth = getScratchPlanet(Earth.sName);
         ObjectPositionCalculator objPosCalc = new ObjectPositionCalculator()
         {
             @Override
             public double[] calcPos(double jd)
             {
-                Planet earth = new Earth();
-                earth.calcHeliocentric(date);
-                planet.calcHeliocentric(date);
-                planet.calcGeocentric(earth);
-                return new double[]{planet.mRa / 15, planet.mDeclination};
+                calcEarth(jd, earth);
+                body.calcHeliocentric(jd);
+                body.calcGeocentric(earth);
+                return new double[]{body.mRa / 15, body.mDeclination};
             }
         };
         return Astro.calcRiseSet(objType, elevation, longitude, latitude,
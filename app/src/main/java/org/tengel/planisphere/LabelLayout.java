@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2020 Timo Engel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.tengel.planisphere;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Places the texts of the chart objects without overlaps. The chart objects
+ * add their texts with a priority in draw(), draw() of the layout then drops
+ * every text that overlaps a text with a higher priority (a lower value,
+ * like a magnitude) and draws the remaining ones. Text widths are measured
+ * once per paint, new paints are created by the PaintPool when the font
+ * settings change. Only used on the main thread.
+ */
+class LabelLayout
+{
+    // priorities of texts without a magnitude
+    static final float PRIORITY_CONSTELLATION = 2;
+    static final float PRIORITY_GRID = 10;
+
+    private static final int PAINTS_MAX = 16;
+
+    private static class Metrics
+    {
+        float ascent;
+        float descent;
+        HashMap<String, Float> widths = new HashMap<>();
+    }
+
+    private IdentityHashMap<Paint, Metrics> mMetrics = new IdentityHashMap<>();
+    private float mCellSize;
+
+    // added texts
+    private int mCount = 0;
+    private String[] mTexts = new String[64];
+    private Paint[] mPaints = new Paint[64];
+    private float[] mXy = new float[128];      // position passed to drawText()
+    private float[] mBounds = new float[256];  // left, top, right, bottom
+    private long[] mOrder = new long[64];      // priority and index
+
+    // collision grid over the area of begin(), a linked list of the placed
+    // texts in each cell
+    private float mLeft;
+    private float mTop;
+    private int mColumns;
+    private int mRows;
+    private int[] mCellHead = new int[0];
+    private int[] mNodeText = new int[64];
+    private int[] mNodeNext = new int[64];
+    private int mNodeCount;
+
+    LabelLayout(float cellSize)
+    {
+        mCellSize = cellSize;
+    }
+
+    /**
+     * Start a new layout for texts in the area (left, top, right, bottom).
+     */
+    void begin(float left, float top, float right, float bottom)
+    {
+        mCount = 0;
+        mLeft = left;
+        mTop = top;
+        mColumns = Math.max(1, (int) Math.ceil((right - left) / mCellSize));
+        mRows = Math.max(1, (int) Math.ceil((bottom - top) / mCellSize));
+        if (mCellHead.length < mColumns * mRows)
+        {
+            mCellHead = new int[mColumns * mRows];
+        }
+    }
+
+    /**
+     * Add a text at the position of Canvas.drawText(). Lower priorities are
+     * placed first.
+     */
+    void add(String text, float x, float y, float priority, Paint paint)
+    {
+        if (mCount == mTexts.length)
+        {
+            int size = mCount * 2;
+            mTexts = Arrays.copyOf(mTexts, size);
+            mPaints = Arrays.copyOf(mPaints, size);
+            mXy = Arrays.copyOf(mXy, size * 2);
+            mBounds = Arrays.copyOf(mBounds, size * 4);
+            mOrder = Arrays.copyOf(mOrder, size);
+        }
+        Metrics metrics = getMetrics(paint);
+        float width = getWidth(metrics, paint, text);
+        float left = x;
+        if (paint.getTextAlign() == Paint.Align.CENTER)
+        {
+            left -= width / 2;
+        }
+        else if (paint.getTextAlign() == Paint.Align.RIGHT)
+        {
+            left -= width;
+        }
+        int i = mCount++;
+        mTexts[i] = text;
+        mPaints[i] = paint;
+        mXy[i * 2] = x;
+        mXy[i * 2 + 1] = y;
+        mBounds[i * 4] = left;
+        mBounds[i * 4 + 1] = y + metrics.ascent;
+        mBounds[i * 4 + 2] = left + width;
+        mBounds[i * 4 + 3] = y + metrics.descent;
+
+        // sortable bits of the float priority in the upper half, the index
+        // in the lower half
+        int bits = Float.floatToIntBits(priority);
+        if (bits < 0)
+        {
+            bits ^= 0x7fffffff;
+        }
+        mOrder[i] = ((long) bits << 32) | i;
+    }
+
+    /**
+     * Place the added texts and draw the ones that do not overlap.
+     */
+    void draw(Canvas canvas)
+    {
+        Arrays.sort(mOrder, 0, mCount);
+        Arrays.fill(mCellHead, 0, mColumns * mRows, -1);
+        mNodeCount = 0;
+        for (int n = 0; n < mCount; ++n)
+        {
+            int i = (int) mOrder[n];
+            int c0 = column(mBounds[i * 4]);
+            int r0 = row(mBounds[i * 4 + 1]);
+            int c1 = column(mBounds[i * 4 + 2]);
+            int r1 = row(mBounds[i * 4 + 3]);
+            if (!overlaps(i, c0, r0, c1, r1))
+            {
+                insert(i, c0, r0, c1, r1);
+                canvas.drawText(mTexts[i], mXy[i * 2], mXy[i * 2 + 1], mPaints[i]);
+            }
+        }
+        Arrays.fill(mTexts, 0, mCount, null);
+        Arrays.fill(mPaints, 0, mCount, null);
+        mCount = 0;
+    }
+
+    private boolean overlaps(int i, int c0, int r0, int c1, int r1)
+    {
+        for (int r = r0; r <= r1; ++r)
+        {
+            for (int c = c0; c <= c1; ++c)
+            {
+                for (int node = mCellHead[r * mColumns + c]; node >= 0; node = mNodeNext[node])
+                {
+                    int j = mNodeText[node];
+                    if (mBounds[i * 4] < mBounds[j * 4 + 2] &&
+                        mBounds[j * 4] < mBounds[i * 4 + 2] &&
+                        mBounds[i * 4 + 1] < mBounds[j * 4 + 3] &&
+                        mBounds[j * 4 + 1] < mBounds[i * 4 + 3])
+                    {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private void insert(int i, int c0, int r0, int c1, int r1)
+    {
+        for (int r = r0; r <= r1; ++r)
+        {
+            for (int c = c0; c <= c1; ++c)
+            {
+                if (mNodeCount == mNodeText.length)
+                {
+                    mNodeText = Arrays.copyOf(mNodeText, mNodeCount * 2);
+                    mNodeNext = Arrays.copyOf(mNodeNext, mNodeCount * 2);
+                }
+                int cell = r * mColumns + c;
+                mNodeText[mNodeCount] = i;
+                mNodeNext[mNodeCount] = mCellHead[cell];
+                mCellHead[cell] = mNodeCount++;
+            }
+        }
+    }
+
+    private int column(float x)
+    {
+        return Math.min(Math.max((int) ((x - mLeft) / mCellSize), 0), mColumns - 1);
+    }
+
+    private int row(float y)
+    {
+        return Math.min(Math.max((int) ((y - mTop) / mCellSize), 0), mRows - 1);
+    }
+
+    private Metrics getMetrics(Paint paint)
+    {
+        Metrics metrics = mMetrics.get(paint);
+        if (metrics == null)
+        {
+            // the paints of previous font settings are not used any more
+            if (mMetrics.size() >= PAINTS_MAX)
+            {
+                mMetrics.clear();
+            }
+            metrics = new Metrics();
+            metrics.ascent = paint.ascent();
+            metrics.descent = paint.descent();
+            mMetrics.put(paint, metrics);
+        }
+        return metrics;
+    }
+
+    private static float getWidth(Metrics metrics, Paint paint, String text)
+    {
+        Float width = metrics.widths.get(text);
+        if (width == null)
+        {
+            width = paint.measureText(text);
+            metrics.widths.put(text, width);
+        }
+        return width;
+    }
+}
@@ -22,6 +22,7 @@ import android.content.res.Resources;
 import android.os.Bundle;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
+import androidx.fragment.app.Fragment;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
@@ -31,10 +32,14 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.WindowManager;
 import android.widget.Toast;
+import org.tengel.planisphere.dialog.AnimationDialog;
+import org.tengel.planisphere.dialog.AnimationListener;
 import org.tengel.planisphere.dialog.DisplayOptionsDialog;
 import org.tengel.planisphere.dialog.InfoDialog;
 import org.tengel.planisphere.dialog.LocationDialog;
 import org.tengel.planisphere.dialog.MagnitudeDialog;
+import org.tengel.planisphere.dialog.NightEventsDialog;
+import org.tengel.planisphere.dialog.NightEventsListener;
 import org.tengel.planisphere.dialog.ObjectDetailsDialog;
 import org.tengel.planisphere.dialog.ObjectDetailsListener;
 import org.tengel.planisphere.dialog.ObjectsNearbyDialog;
@@ -48,11 +53,13 @@ import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
+import java.util.List;
 import java.util.Locale;
 
 public class MainActivity extends AppCompatActivity
         implements UpdateListener, SetLocationListener, SetTimeListener,
-                   ObjectDetailsListener
+                   ObjectDetailsListener, NightEventsListener, AnimationListener,
+                   DataLoader.Listener, Engine.Listener
 {
     public static String LOG_TAG = "Planisphere";
     private static long UPDATE_DELAY_MS = 60000;
@@ -62,14 +69,16 @@ public class MainActivity extends AppCompatActivity
     private ConstellationDb mConstDb;
     private Catalog mCatalog;
     private LocationHandler mLocHandler;
+    private DataLoader mDataLoader;
+    private ChartAnimation mAnimation;
     private boolean mIsRunningUpdateTask = false;
     private boolean mIsRunning = false;
+    private boolean mIsNightEventsRequested = false; // calculated after the first snapshot
     private int mTimeOffsetVolume = 0;
     private Toast mTimeOffsetVolumeToast = null;
     private Handler mTimerHandler = new Handler(Looper.getMainLooper());
     private Runnable mAutoUpdateTask = new Runnable() {
         public void run() {
-            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
             Log.i(LOG_TAG, "running AutoUpdateTask");
             mSettings.setCurrentTime(new GregorianCalendar());
             update();
@@ -86,25 +95,11 @@ public class MainActivity extends AppCompatActivity
             Settings.init(getApplicationContext());
             mSettings = Settings.instance();
 
-            Catalog.init(getResources().openRawResource(R.raw.bs_catalog),
-                         getResources().openRawResource(R.raw.star_names));
-            mCatalog = Catalog.instance();
-
-            ConstellationDb.init(getResources().openRawResource(R.raw.constellation_lines),
-                                 getResources().openRawResource(R.raw.constellation_names),
-                                 getResources().openRawResource(R.raw.constellation_boundaries),
-                                 mCatalog);
-            mConstDb = ConstellationDb.instance();
-
-            PlanetCsv.init(getResources().openRawResource(R.raw.horizons_jupiter),
-                           getResources().openRawResource(R.raw.horizons_saturn),
-                           getResources().openRawResource(R.raw.horizons_uranus),
-                           getResources().openRawResource(R.raw.horizons_neptune));
-
             getWindow().setFlags(WindowManager.LayoutParams.FLAG_FULLSCREEN,
                                  WindowManager.LayoutParams.FLAG_FULLSCREEN);
             setTheme(mSettings.getStyle());
-            mEngine = new Engine(this, mSettings, mCatalog, mConstDb);
+            mEngine = new Engine(this, mSettings);
+            mEngine.setListener(this);
             setContentView(R.layout.activity_main);
             Toolbar toolbar = findViewById(R.id.toolbar);
             setSupportActionBar(toolbar);
@@ -112,6 +107,7 @@ public class MainActivity extends AppCompatActivity
             mDrawArea = findViewById(R.id.drawArea);
             mDrawArea.setActionBar(getSupportActionBar());
             mDrawArea.setMainActivity(this);
+            mAnimation = new ChartAnimation(mDrawArea, mEngine, mSettings);
             LocationHandler.init(this);
             mLocHandler = LocationHandler.instance();
 
@@ -145,18 +141,68 @@ public class MainActivity extends AppCompatActivity
             ChartPlanet.sTextColor = typedValue.data;
             Sun.sTextColor = typedValue.data;
             Moon.sTextColor = typedValue.data;
+
+            // the chart is drawn without stars and constellations until the
+            // data is loaded, see dataLoaded()
+            mDataLoader = new DataLoader(getResources(), this);
+            mDataLoader.start();
         }
         catch (Exception e)
         {
-            Log.e(LOG_TAG, Log.getStackTraceString(e));
-            AlertDialog.Builder builder = new AlertDialog.Builder(this);
-            builder.setTitle(getString(R.string.app_name) + " failed");
-            builder.setMessage("Exception in onCreate(): " + e.toString() +
-                               e.getStackTrace()[0].toString());
-            builder.create().show();
+            showException("onCreate()", e);
+        }
+    }
+
+    @Override
+    protected void onDestroy()
+    {
+        super.onDestroy();
+        if (mDataLoader != null)
+        {
+            mDataLoader.cancel();
+        }
+        if (mEngine != null)
+        {
+            mEngine.shutdown();
         }
     }
 
+    private void showException(String where, Exception e)
+    {
+        Log.e(LOG_TAG, Log.getStackTraceString(e));
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(getString(R.string.app_name) + " failed");
+        builder.setMessage("Exception in " + where + ": " + e.toString() +
+                           e.getStackTrace()[0].toString());
+        builder.create().show();
+    }
+
+    @Override
+    public void dataLoaded(DataLoader.Dataset dataset)
+    {
+        switch (dataset)
+        {
+            case CATALOG:
+                mCatalog = Catalog.instance();
+                mEngine.setCatalog(mCatalog);
+                break;
+            case CONSTELLATIONS:
+                mConstDb = ConstellationDb.instance();
+                mEngine.setConstellationDb(mConstDb);
+                break;
+            case PLANETS:
+                mEngine.invalidate();
+                break;
+        }
+        update();
+    }
+
+    @Override
+    public void dataLoadFailed(DataLoader.Dataset dataset, Exception e)
+    {
+        showException("loading " + dataset, e);
+    }
+
     @Override
     public boolean dispatchKeyEvent(KeyEvent event)
     {
@@ -209,8 +255,7 @@ public class MainActivity extends AppCompatActivity
     {
         mEngine.setLocation(mLocHandler.getLatitude(), mLocHandler.getLongitude(),
                             mLocHandler.getIsGpsPosition());
-        mEngine.update();
-        mDrawArea.setObjects(mEngine.getObjects());
+        mEngine.update(); // calculated in the background, see snapshotPublished()
         if (mSettings.getKeepScreenOn())
         {
             getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
@@ -221,6 +266,17 @@ public class MainActivity extends AppCompatActivity
         }
     }
 
+    @Override
+    public void snapshotPublished(Engine.Snapshot snapshot)
+    {
+        mDrawArea.setObjects(snapshot.getObjects());
+        if (mIsNightEventsRequested)
+        {
+            mIsNightEventsRequested = false;
+            mEngine.calcNightEvents();
+        }
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu)
     {
@@ -251,6 +307,18 @@ public class MainActivity extends AppCompatActivity
             d.show(getSupportFragmentManager(), "MagnitudePickerDialog");
             return true;
         }
+        else if (id == R.id.action_night_events)
+        {
+            NightEventsDialog d = new NightEventsDialog();
+            d.show(getSupportFragmentManager(), "NightEventsDialog");
+            return true;
+        }
+        else if (id == R.id.action_animation)
+        {
+            AnimationDialog d = new AnimationDialog();
+            d.show(getSupportFragmentManager(), "AnimationDialog");
+            return true;
+        }
         else if (id == R.id.action_location)
         {
             LocationDialog d = new LocationDialog();
@@ -314,6 +382,7 @@ public class MainActivity extends AppCompatActivity
     {
         super.onPause();
         mIsRunning = false;
+        mAnimation.stop();
         stopTimer();
         mLocHandler.pauseGps();
     }
@@ -339,6 +408,7 @@ public class MainActivity extends AppCompatActivity
     @Override
     public void changeAutoUpdate(boolean enabled)
     {
+        mAnimation.stop();
         if (enabled)
         {
             startTimer();
@@ -357,15 +427,18 @@ public class MainActivity extends AppCompatActivity
 
     public void showNearbyObjects(float chartX, float chartY)
     {
-        ChartObject[] nearbyObjects = mEngine.findObjectsNear(chartX, chartY);
-        Settings.instance().setNearbyObjects(nearbyObjects);
+        // the chart objects are reused after the next update, keep copies
+        ChartObject[] chartObjects = mDrawArea.findObjectsNear(chartX, chartY);
+        ObjectInfo[] nearbyObjects = new ObjectInfo[chartObjects.length];
         ArrayList<String> nameArray = new ArrayList<>();
-        for (ChartObject co : nearbyObjects)
+        for (int i = 0; i < chartObjects.length; ++i)
         {
+            nearbyObjects[i] = new ObjectInfo(chartObjects[i]);
             nameArray.add(
                 String.format(Locale.getDefault(), "%s;  %.1f mag",
-                              co.getTextLong(), co.getApparentMagnitude()));
+                              nearbyObjects[i].mName, nearbyObjects[i].mApparentMagnitude));
         }
+        Settings.instance().setNearbyObjects(nearbyObjects);
         double azEle[] = mDrawArea.area2horizontal(chartX, chartY);
         Bundle data = new Bundle();
         data.putStringArrayList("nameArray", nameArray);
@@ -379,79 +452,79 @@ public class MainActivity extends AppCompatActivity
     @Override
     public void showObjectDetails(int idx)
     {
-        ChartObject chartObject = mSettings.getNearbyObjects()[idx];
+        ObjectInfo info = mSettings.getNearbyObjects()[idx];
         Bundle data = new Bundle();
         ArrayList<String> links = new ArrayList<>();
         ArrayList<String> keys = new ArrayList<>();
         ArrayList<String> values = new ArrayList<>();
         keys.add(getString(R.string.type));
-        values.add(String.valueOf(chartObject.getTypeString()));
+        values.add(String.valueOf(info.mTypeString));
         keys.add(getString(R.string.azimuth));
-        values.add(String.format(Locale.getDefault(), "%.1f°", chartObject.getAzimuth()));
+        values.add(String.format(Locale.getDefault(), "%.1f°", info.mAzimuth));
         keys.add(getString(R.string.elevation));
-        values.add(String.format(Locale.getDefault(), "%.1f°", chartObject.getElevation()));
+        values.add(String.format(Locale.getDefault(), "%.1f°", info.mElevation));
         keys.add(getString(R.string.apparent_magnitude));
-        values.add(String.format(Locale.getDefault(), "%.1f mag", chartObject.getApparentMagnitude()));
-        if (chartObject.getType() == ObjectType.STAR)
+        values.add(String.format(Locale.getDefault(), "%.1f mag", info.mApparentMagnitude));
+        if (info.mType == ObjectType.STAR)
         {
-            Catalog.Entry ce = ((Star) chartObject).getCatalogEntry();
+            int starIdx = info.mCatalogIndex;
+            int hr = mCatalog.getHr(starIdx);
             keys.add(getString(R.string.bayerFlamsteed));
-            values.add(ce.bayerFlamsteed);
+            values.add(mCatalog.getBayerFlamsteed(starIdx));
             keys.add(getString(R.string.brightStarCatalogue));
-            values.add(String.format(Locale.US, "HR %d", ce.hr));
+            values.add(String.format(Locale.US, "HR %d", hr));
             keys.add(getString(R.string.RA));
-            values.add(String.format(Locale.getDefault(), "%.4f°", ce.rightAscension));
+            values.add(String.format(Locale.getDefault(), "%.4f°", mCatalog.getRightAscension(starIdx)));
             keys.add(getString(R.string.DEC));
-            values.add(String.format(Locale.getDefault(), "%.4f°", ce.declination));
+            values.add(String.format(Locale.getDefault(), "%.4f°", mCatalog.getDeclination(starIdx)));
             keys.add(getString(R.string.riseUtc));
-            values.add(mEngine.calcRise(ce, false));
+            values.add(mEngine.calcRise(starIdx, false));
             keys.add(getString(R.string.setUtc));
-            values.add(mEngine.calcSet(ce, false));
+            values.add(mEngine.calcSet(starIdx, false));
             keys.add(getString(R.string.rise));
-            values.add(mEngine.calcRise(ce, true));
+            values.add(mEngine.calcRise(starIdx, true));
             keys.add(getString(R.string.set));
-            values.add(mEngine.calcSet(ce, true));
+            values.add(mEngine.calcSet(starIdx, true));
             links.add(String.format(Locale.US,
                     "<a href=\"https://simbad.u-strasbg.fr/simbad/sim-id?Ident=HR+%d\">&#8599; SIMBAD</a>",
-                    ce.hr));
+                    hr));
             links.add(String.format(Locale.US,
                     "<a href=\"https://m.wikidata.org/w/index.php?search=%%22HR+%d%%22\">&#8599; Wikidata</a>",
-                    ce.hr));
+                    hr));
         }
-        else if (chartObject.getType() == ObjectType.PLANET)
+        else if (info.mType == ObjectType.PLANET)
         {
-            Planet p = ((ChartPlanet) chartObject).getPlanet();
             keys.add(getString(R.string.helio_ecliptic_lat));
-            values.add(String.format(Locale.getDefault(), "%.4f°", p.mHelio_lat));
+            values.add(String.format(Locale.getDefault(), "%.4f°", info.mHelio_lat));
             keys.add(getString(R.string.helio_ecliptic_lon));
-            values.add(String.format(Locale.getDefault(), "%.4f°", p.mHelio_lon));
+            values.add(String.format(Locale.getDefault(), "%.4f°", info.mHelio_lon));
             keys.add(getString(R.string.distance_sun));
-            values.add(String.format(Locale.getDefault(), "%.4f AU", p.mDistance_sun));
+            values.add(String.format(Locale.getDefault(), "%.4f AU", info.mDistance_sun));
             keys.add(getString(R.string.geo_ecliptic_lat));
-            values.add(String.format(Locale.getDefault(), "%.4f°", p.mEcliptic_lat));
+            values.add(String.format(Locale.getDefault(), "%.4f°", info.mEcliptic_lat));
             keys.add(getString(R.string.geo_ecliptic_lon));
-            values.add(String.format(Locale.getDefault(), "%.4f°", p.mEcliptic_lon));
+            values.add(String.format(Locale.getDefault(), "%.4f°", info.mEcliptic_lon));
             keys.add(getString(R.string.distance_earth));
-            values.add(String.format(Locale.getDefault(), "%.4f AU", p.mDistance_earth));
+            values.add(String.format(Locale.getDefault(), "%.4f AU", info.mDistance_earth));
             keys.add(getString(R.string.RA));
-            values.add(String.format(Locale.getDefault(), "%.4f°", p.mRa));
+            values.add(String.format(Locale.getDefault(), "%.4f°", info.mRa));
             keys.add(getString(R.string.DEC));
-            values.add(String.format(Locale.getDefault(), "%.4f°", p.mDeclination));
+            values.add(String.format(Locale.getDefault(), "%.4f°", info.mDeclination));
             keys.add(getString(R.string.riseUtc));
-            values.add(mEngine.calcRise(p, false));
+            values.add(mEngine.calcRise(info.mPlanetName, false));
             keys.add(getString(R.string.setUtc));
-            values.add(mEngine.calcSet(p, false));
+            values.add(mEngine.calcSet(info.mPlanetName, false));
             keys.add(getString(R.string.rise));
-            values.add(mEngine.calcRise(p, true));
+            values.add(mEngine.calcRise(info.mPlanetName, true));
             keys.add(getString(R.string.set));
-            values.add(mEngine.calcSet(p, true));
+            values.add(mEngine.calcSet(info.mPlanetName, true));
             keys.add(getString(R.string.phase));
-            values.add(String.format(Locale.getDefault(), "%.1f %%", p.mPhase));
+            values.add(String.format(Locale.getDefault(), "%.1f %%", info.mPhase));
             links.add(String.format(Locale.US,
                     "<a href=\"https://m.wikidata.org/wiki/%s\">&#8599; Wikidata</a>",
-                    p.mWikidataId));
+                    info.mWikidataId));
         }
-        else if (chartObject.getType() == ObjectType.SUN)
+        else if (info.mType == ObjectType.SUN)
         {
             keys.add(getString(R.string.riseUtc));
             values.add(mEngine.calcRiseSetSun(false, RiseSetType.RISE));
@@ -477,9 +550,8 @@ public class MainActivity extends AppCompatActivity
                     "<a href=\"https://m.wikidata.org/wiki/%s\">&#8599; Wikidata</a>",
                     Sun.sWikidataId));
         }
-        else if (chartObject.getType() == ObjectType.MOON)
+        else if (info.mType == ObjectType.MOON)
         {
-            Moon m = ((Moon) chartObject);
             keys.add(getString(R.string.riseUtc));
             values.add(mEngine.calcRiseMoon(false));
             keys.add(getString(R.string.setUtc));
@@ -489,11 +561,11 @@ public class MainActivity extends AppCompatActivity
             keys.add(getString(R.string.set));
             values.add(mEngine.calcSetMoon(true));
             keys.add(getString(R.string.distance_sun));
-            values.add(String.format(Locale.getDefault(), "%.6f AU", m.mDistance_sun));
+            values.add(String.format(Locale.getDefault(), "%.6f AU", info.mDistance_sun));
             keys.add(getString(R.string.distance_earth));
-            values.add(String.format(Locale.getDefault(), "%.6f AU", m.mDistance_earth));
+            values.add(String.format(Locale.getDefault(), "%.6f AU", info.mDistance_earth));
             keys.add(getString(R.string.phase));
-            values.add(String.format(Locale.getDefault(), "%.1f %%", m.mPhase));
+            values.add(String.format(Locale.getDefault(), "%.1f %%", info.mPhase));
             keys.add(getString(R.string.previousFullMoon));
             values.add(mEngine.prevFullMoon());
             keys.add(getString(R.string.previousNewMoon));
@@ -506,7 +578,7 @@ public class MainActivity extends AppCompatActivity
                     "<a href=\"https://m.wikidata.org/wiki/%s\">&#8599; Wikidata</a>",
                     Moon.sWikidataId));
         }
-        data.putString("name", chartObject.getTextLong());
+        data.putString("name", info.mName);
         data.putStringArrayList("keys", keys);
         data.putStringArrayList("values", values);
         data.putStringArrayList("links", links);
@@ -515,4 +587,65 @@ public class MainActivity extends AppCompatActivity
         d.show(getSupportFragmentManager(), "ObjectDetailsDialog");
     }
 
+    @Override
+    public void startAnimation(double speed)
+    {
+        stopTimer();
+        mAnimation.start(speed);
+    }
+
+    @Override
+    public void stopAnimation()
+    {
+        mAnimation.stop();
+        if (mSettings.getAutoUpdate())
+        {
+            mSettings.setCurrentTime(new GregorianCalendar());
+            update();
+            startTimer();
+        }
+    }
+
+    @Override
+    public void requestNightEvents()
+    {
+        if (mEngine.getSnapshot() == null)
+        {
+            mIsNightEventsRequested = true;
+            return;
+        }
+        mEngine.calcNightEvents();
+    }
+
+    @Override
+    public void nightEventsCalculated(List<NightEvents.Event> events)
+    {
+        Fragment f = getSupportFragmentManager().findFragmentByTag("NightEventsDialog");
+        if (!(f instanceof NightEventsDialog))
+        {
+            return; // dismissed
+        }
+        ArrayList<String> rows = new ArrayList<>();
+        for (NightEvents.Event e : events)
+        {
+            String event;
+            switch (e.getType())
+            {
+                case ASTRO_DAWN:    event = getString(R.string.astroDawn);    break;
+                case NAUTICAL_DAWN: event = getString(R.string.nauticalDawn); break;
+                case CIVIL_DAWN:    event = getString(R.string.civilDawn);    break;
+                case CIVIL_DUSK:    event = getString(R.string.civilDusk);    break;
+                case NAUTICAL_DUSK: event = getString(R.string.nauticalDusk); break;
+                case ASTRO_DUSK:    event = getString(R.string.astroDusk);    break;
+                case RISE:          event = getString(R.string.eventRise, e.getName()); break;
+                case SET:           event = getString(R.string.eventSet, e.getName());  break;
+                default:
+                    event = getString(R.string.eventCulmination, e.getName());
+                    break;
+            }
+            rows.add(Astro.jd2str(e.getJd(), true) + "   " + event);
+        }
+        ((NightEventsDialog) f).setEvents(rows);
+    }
+
 }
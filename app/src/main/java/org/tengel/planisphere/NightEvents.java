@@ -0,0 +1,415 @@
+/*
+ * Copyright (C) 2020 Timo Engel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.tengel.planisphere;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+/**
+ * Rise, set and culmination of the objects, and the twilight times, in the
+ * night after the local noon before a time. The elevation of each object is
+ * sampled in steps of STEP_MINUTES over 24 hours, the samples bracket the
+ * crossings of the rise/set elevation and the culmination, which are refined
+ * by bisection and golden section search. Once the sun is added, only the
+ * events from the end of the evening civil twilight to the begin of the
+ * morning civil twilight are returned.
+ */
+class NightEvents
+{
+    static final int STEP_MINUTES = 10;
+    private static final int STEPS = 24 * 60 / STEP_MINUTES;
+    private static final double STEP = STEP_MINUTES / (24.0 * 60); // days
+    private static final double PRECISION = 1 / 86400.0;           // days
+    private static final double GOLDEN = (Math.sqrt(5) - 1) / 2;
+
+    // rise/set elevations (degree)
+    private static final double ELEVATION_STAR = -0.566667;
+    private static final double ELEVATION_PLANET = -0.566667;
+    private static final double ELEVATION_SUN = -0.83333;
+    private static final double ELEVATION_MOON = 0.133333;
+    private static final double ELEVATION_CIVIL = -6;
+    private static final double ELEVATION_NAUTICAL = -12;
+    private static final double ELEVATION_ASTRO = -18;
+
+    enum Type
+    {
+        ASTRO_DAWN,
+        NAUTICAL_DAWN,
+        CIVIL_DAWN,
+        RISE,
+        CULMINATION,
+        SET,
+        CIVIL_DUSK,
+        NAUTICAL_DUSK,
+        ASTRO_DUSK,
+    }
+
+    static class Event
+    {
+        private double mJd;
+        private String mName;
+        private Type mType;
+
+        private Event(double jd, String name, Type type)
+        {
+            mJd = jd;
+            mName = name;
+            mType = type;
+        }
+
+        double getJd()
+        {
+            return mJd;
+        }
+
+        String getName()
+        {
+            return mName;
+        }
+
+        Type getType()
+        {
+            return mType;
+        }
+    }
+
+    private double mLongitude;
+    private double mSinLat;
+    private double mCosLat;
+    private double mStart;
+    private double mNightStart = Double.NEGATIVE_INFINITY; // see setNight()
+    private double mNightEnd = Double.POSITIVE_INFINITY;
+    private double[] mSinLst = new double[STEPS + 1];  // local sidereal time of the samples
+    private double[] mCosLst = new double[STEPS + 1];
+    private double[] mSinEle = new double[STEPS + 1];  // elevation of the current object
+    private ArrayList<Event> mEvents = new ArrayList<>();
+
+    /**
+     * :param GregorianCalendar time: The events of the night after the local
+     * noon before this time are calculated.
+     * :param double latitude: Geographical latitude of observer (degree).
+     * :param double longitude: Geographical longitude of observer (degree).
+     */
+    NightEvents(GregorianCalendar time, double latitude, double longitude)
+    {
+        mLongitude = longitude;
+        double phi = Math.toRadians(latitude);
+        mSinLat = Math.sin(phi);
+        mCosLat = Math.cos(phi);
+
+        // julian dates start at noon UT, shift them to the local mean noon
+        double shift = longitude / 360;
+        mStart = Math.floor(Astro.julian_date(time) + shift) - shift;
+        for (int i = 0; i <= STEPS; ++i)
+        {
+            double lst = localSiderealTime(mStart + i * STEP);
+            mSinLst[i] = Math.sin(lst);
+            mCosLst[i] = Math.cos(lst);
+        }
+    }
+
+    /**
+     * Add the rise, set and culmination of a star.
+     *
+     * :param String name: Name of the star.
+     * :param double ra: Right ascension (h).
+     * :param double dec: Declination (degree).
+     */
+    void addStar(String name, final double ra, final double dec)
+    {
+        // the hour angle of a star is the only argument which changes in the
+        // sweep: cos(lst - ra) = cos(lst) * cos(ra) + sin(lst) * sin(ra)
+        double delta = Math.toRadians(dec);
+        double a = mSinLat * Math.sin(delta);
+        double b = mCosLat * Math.cos(delta);
+        double cosRa = Math.cos(Math.toRadians(ra * 15));
+        double sinRa = Math.sin(Math.toRadians(ra * 15));
+        for (int i = 0; i <= STEPS; ++i)
+        {
+            mSinEle[i] = a + b * (mCosLst[i] * cosRa + mSinLst[i] * sinRa);
+        }
+        ObjectPositionCalculator objPosCalc = new ObjectPositionCalculator()
+        {
+            @Override
+            public double[] calcPos(double jd)
+            {
+                return new double[]{ra, dec};
+            }
+        };
+        addEvents(name, objPosCalc, ELEVATION_STAR, Type.RISE, Type.SET);
+        addCulmination(name, objPosCalc, ELEVATION_STAR);
+    }
+
+    /**
+     * Add the rise, set and culmination of all stars of the catalog up to
+     * maxMagnitude.
+     */
+    void addStars(Catalog catalog, double maxMagnitude)
+    {
+        int count = catalog.countBrighterThan(maxMagnitude);
+        for (int i = 0; i < count; ++i)
+        {
+            String name = catalog.getName(i);
+            if (name == null)
+            {
+                name = "HR " + catalog.getHr(i);
+            }
+            addStar(name, catalog.getRightAscension(i), catalog.getDeclination(i));
+        }
+    }
+
+    /**
+     * Add the rise, set and culmination of a planet.
+     *
+     * :param String name: Name of the events.
+     * :param String planetName: Name of the planet to calculate.
+     */
+    void addPlanet(String name, String planetName)
+    {
+        final Planet body = Kepler.getScratchPlanet(planetName);
+        final Planet earth = Kepler.getScratchPlanet(Earth.sName);
+        ObjectPositionCalculator objPosCalc = new ObjectPositionCalculator()
+        {
+            @Override
+            public double[] calcPos(double jd)
+            {
+                Kepler.calcEarth(jd, earth);
+                body.calcHeliocentric(jd);
+                body.calcGeocentric(earth);
+                return new double[]{body.mRa / 15, body.mDeclination};
+            }
+        };
+        sample(objPosCalc);
+        addEvents(name, objPosCalc, ELEVATION_PLANET, Type.RISE, Type.SET);
+        addCulmination(name, objPosCalc, ELEVATION_PLANET);
+    }
+
+    /**
+     * Add the rise and set of the sun and the begin and end of the twilights.
+     */
+    void addSun(String name)
+    {
+        ObjectPositionCalculator objPosCalc = new ObjectPositionCalculator()
+        {
+            @Override
+            public double[] calcPos(double jd)
+            {
+                double[] raDec = Astro.calcPositionSun(jd);
+                return new double[]{raDec[0] / 15, raDec[1]};
+            }
+        };
+        sample(objPosCalc);
+        addEvents(name, objPosCalc, ELEVATION_SUN, Type.RISE, Type.SET);
+        int civil = mEvents.size();
+        addEvents(name, objPosCalc, ELEVATION_CIVIL, Type.CIVIL_DAWN, Type.CIVIL_DUSK);
+        setNight(civil);
+        addEvents(name, objPosCalc, ELEVATION_NAUTICAL, Type.NAUTICAL_DAWN,
+                  Type.NAUTICAL_DUSK);
+        addEvents(name, objPosCalc, ELEVATION_ASTRO, Type.ASTRO_DAWN, Type.ASTRO_DUSK);
+    }
+
+    /**
+     * Add the rise, set and culmination of the moon.
+     */
+    void addMoon(String name)
+    {
+        ObjectPositionCalculator objPosCalc = new ObjectPositionCalculator()
+        {
+            @Override
+            public double[] calcPos(double jd)
+            {
+                double[] bld = Astro.calcPositionMoon(jd);
+                double[] raDec = Astro.geoEcl2geoEqua(bld[0], bld[1]);
+                return new double[]{raDec[0] / 15, raDec[1]};
+            }
+        };
+        sample(objPosCalc);
+        addEvents(name, objPosCalc, ELEVATION_MOON, Type.RISE, Type.SET);
+        addCulmination(name, objPosCalc, ELEVATION_MOON);
+    }
+
+    /**
+     * Returns the events of the night sorted by time, the list is empty if
+     * the sun does not set below the civil twilight.
+     */
+    List<Event> getEvents()
+    {
+        ArrayList<Event> events = new ArrayList<>();
+        for (Event e : mEvents)
+        {
+            if (e.mJd >= mNightStart && e.mJd <= mNightEnd)
+            {
+                events.add(e);
+            }
+        }
+        Collections.sort(events, new Comparator<Event>()
+        {
+            @Override
+            public int compare(Event a, Event b)
+            {
+                return Double.compare(a.mJd, b.mJd);
+            }
+        });
+        return events;
+    }
+
+    /**
+     * Returns the julian date of the local noon the events start at.
+     */
+    double getStart()
+    {
+        return mStart;
+    }
+
+    /**
+     * Local sidereal time in radians.
+     */
+    private double localSiderealTime(double jd)
+    {
+        return Math.toRadians((Astro.sidereal_time(jd) + mLongitude / 15) * 15);
+    }
+
+    private double sinElevation(ObjectPositionCalculator objPosCalc, double jd)
+    {
+        double[] raDec = objPosCalc.calcPos(jd);
+        double hourAngle = localSiderealTime(jd) - Math.toRadians(raDec[0] * 15);
+        double delta = Math.toRadians(raDec[1]);
+        return mSinLat * Math.sin(delta) + mCosLat * Math.cos(delta) * Math.cos(hourAngle);
+    }
+
+    /**
+     * Set the night from the sampled elevations of the sun and its civil
+     * twilight events, which start at index civil. The night starts at the
+     * first civil dusk, or at the start if the sun is below the civil
+     * twilight, and ends at the following civil dawn or after 24 hours.
+     */
+    private void setNight(int civil)
+    {
+        double start = Double.NaN;
+        if (mSinEle[0] < Math.sin(Math.toRadians(ELEVATION_CIVIL)))
+        {
+            start = mStart;
+        }
+        double end = mStart + 1;
+        for (int i = civil; i < mEvents.size(); ++i)
+        {
+            Event e = mEvents.get(i);
+            if (Double.isNaN(start) && e.mType == Type.CIVIL_DUSK)
+            {
+                start = e.mJd;
+            }
+            else if (!Double.isNaN(start) && e.mType == Type.CIVIL_DAWN)
+            {
+                end = e.mJd;
+                break;
+            }
+        }
+        mNightStart = start;
+        mNightEnd = end;
+    }
+
+    private void sample(ObjectPositionCalculator objPosCalc)
+    {
+        for (int i = 0; i <= STEPS; ++i)
+        {
+            mSinEle[i] = sinElevation(objPosCalc, mStart + i * STEP);
+        }
+    }
+
+    /**
+     * Add an event of type rise or set for each crossing of the elevation by
+     * the samples.
+     */
+    private void addEvents(String name, ObjectPositionCalculator objPosCalc,
+                           double elevation, Type rise, Type set)
+    {
+        double sinEle = Math.sin(Math.toRadians(elevation));
+        for (int i = 1; i <= STEPS; ++i)
+        {
+            boolean isAbove = mSinEle[i] >= sinEle;
+            if ((mSinEle[i - 1] >= sinEle) == isAbove)
+            {
+                continue;
+            }
+            // bisection, the object is above the elevation at one end
+            double t0 = mStart + (i - 1) * STEP;
+            double t1 = mStart + i * STEP;
+            while (t1 - t0 > PRECISION)
+            {
+                double t = (t0 + t1) / 2;
+                if ((sinElevation(objPosCalc, t) >= sinEle) == isAbove)
+                {
+                    t1 = t;
+                }
+                else
+                {
+                    t0 = t;
+                }
+            }
+            mEvents.add(new Event((t0 + t1) / 2, name, isAbove ? rise : set));
+        }
+    }
+
+    /**
+     * Add the culminations above the elevation. A sample which is higher than
+     * both neighbours brackets a culmination.
+     */
+    private void addCulmination(String name, ObjectPositionCalculator objPosCalc,
+                                double elevation)
+    {
+        double sinEle = Math.sin(Math.toRadians(elevation));
+        for (int i = 1; i < STEPS; ++i)
+        {
+            if (mSinEle[i] < mSinEle[i - 1] || mSinEle[i] <= mSinEle[i + 1] ||
+                mSinEle[i] < sinEle)
+            {
+                continue;
+            }
+            // golden section search for the maximum
+            double t0 = mStart + (i - 1) * STEP;
+            double t1 = mStart + (i + 1) * STEP;
+            double a = t1 - GOLDEN * (t1 - t0);
+            double b = t0 + GOLDEN * (t1 - t0);
+            double fa = sinElevation(objPosCalc, a);
+            double fb = sinElevation(objPosCalc, b);
+            while (t1 - t0 > PRECISION)
+            {
+                if (fa < fb)
+                {
+                    t0 = a;
+                    a = b;
+                    fa = fb;
+                    b = t0 + GOLDEN * (t1 - t0);
+                    fb = sinElevation(objPosCalc, b);
+                }
+                else
+                {
+                    t1 = b;
+                    b = a;
+                    fb = fa;
+                    a = t1 - GOLDEN * (t1 - t0);
+                    fa = sinElevation(objPosCalc, a);
+                }
+            }
+            mEvents.add(new Event((t0 + t1) / 2, name, Type.CULMINATION));
+        }
+    }
+}
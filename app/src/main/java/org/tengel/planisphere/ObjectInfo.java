@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2020 Timo Engel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.tengel.planisphere;
+
+/**
+ * Copy of the values of a chart object which are shown in the dialogs. The
+ * chart objects belong to a buffer of the Engine, which is updated again in
+ * the worker thread after the next snapshot is published, so they are not
+ * kept beyond the published snapshot. Must be created on the main thread.
+ */
+class ObjectInfo
+{
+    final ObjectType mType;
+    final String mTypeString;
+    final String mName;
+    final double mAzimuth;
+    final double mElevation;
+    final double mApparentMagnitude;
+
+    // stars, -1 for other objects
+    final int mCatalogIndex;
+
+    // planets, null for other objects
+    final String mPlanetName;
+    final String mWikidataId;
+    final double mHelio_lat;
+    final double mHelio_lon;
+    final double mEcliptic_lat;
+    final double mEcliptic_lon;
+    final double mRa;
+    final double mDeclination;
+
+    // planets and moon, NaN for other objects
+    final double mDistance_sun;
+    final double mDistance_earth;
+    final double mPhase;
+
+    ObjectInfo(ChartObject co)
+    {
+        mType = co.getType();
+        mTypeString = co.getTypeString();
+        mName = co.getTextLong();
+        mAzimuth = co.getAzimuth();
+        mElevation = co.getElevation();
+        mApparentMagnitude = co.getApparentMagnitude();
+        mCatalogIndex = (co instanceof Star) ? ((Star) co).getCatalogIndex() : -1;
+
+        Planet p = (co instanceof ChartPlanet) ? ((ChartPlanet) co).getPlanet() : null;
+        mPlanetName = (p != null) ? p.mName : null;
+        mWikidataId = (p != null) ? p.mWikidataId : null;
+        mHelio_lat = (p != null) ? p.mHelio_lat : Double.NaN;
+        mHelio_lon = (p != null) ? p.mHelio_lon : Double.NaN;
+        mEcliptic_lat = (p != null) ? p.mEcliptic_lat : Double.NaN;
+        mEcliptic_lon = (p != null) ? p.mEcliptic_lon : Double.NaN;
+        mRa = (p != null) ? p.mRa : Double.NaN;
+        mDeclination = (p != null) ? p.mDeclination : Double.NaN;
+
+        double distanceSun = Double.NaN;
+        double distanceEarth = Double.NaN;
+        double phase = Double.NaN;
+        if (p != null)
+        {
+            distanceSun = p.mDistance_sun;
+            distanceEarth = p.mDistance_earth;
+            phase = p.mPhase;
+        }
+        else if (co instanceof Moon)
+        {
+            Moon m = (Moon) co;
+            distanceSun = m.mDistance_sun;
+            distanceEarth = m.mDistance_earth;
+            phase = m.mPhase;
+        }
+        mDistance_sun = distanceSun;
+        mDistance_earth = distanceEarth;
+        mPhase = phase;
+    }
+}
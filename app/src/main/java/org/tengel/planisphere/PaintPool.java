@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2020 Timo Engel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.tengel.planisphere;
+
+import android.graphics.Paint;
+
+/**
+ * Paints shared by all chart objects of the same kind. The paints are
+ * created from the theme colours (the sColor fields of the chart objects)
+ * and the sizes in the settings. update() creates new paints when the theme
+ * or a size changed, existing paints are never modified because they may
+ * still be used to draw the previous chart.
+ */
+class PaintPool
+{
+    enum Kind {AZ_GRID, HORIZON, INFO_TEXT, STAR, PLANET, SUN, MOON, EQ_GRID,
+               EQUATOR, ECLIPTIC, CONST_LINES, CONST_BOUNDARIES}
+
+    private Paint[] mPaints = new Paint[Kind.values().length];
+    private Paint[] mTextPaints = new Paint[Kind.values().length];
+    private Paint[] mStarPaints = new Paint[RoundObject.BUCKET_COUNT];
+    private float mHorizonWidth;
+    private boolean mIsValid = false;
+    private int mStyle;
+    private float mFontScale;
+    private float mTextSize;
+    private float mTextSizeSmall;
+    private float mStarSize;
+
+    /**
+     * The text and star sizes of the settings do not change, they are taken
+     * here.
+     */
+    PaintPool(Settings settings, float horizonWidth)
+    {
+        mHorizonWidth = horizonWidth;
+        mTextSize = settings.getTextSize();
+        mTextSizeSmall = settings.getTextSizeSmall();
+        mStarSize = settings.getStarSize();
+    }
+
+    /**
+     * Recreate the paints if the theme or the font scale changed since the
+     * last call.
+     */
+    void update(int style, float fontScale)
+    {
+        if (mIsValid && mStyle == style && mFontScale == fontScale)
+        {
+            return;
+        }
+        mIsValid = true;
+        mStyle = style;
+        mFontScale = fontScale;
+
+        float textSize = mTextSize * mFontScale;
+        float textSizeSmall = mTextSizeSmall * mFontScale;
+        create(Kind.AZ_GRID, AzGrid.sColor, AzGrid.sColor, textSize, Paint.Align.CENTER);
+        mPaints[Kind.AZ_GRID.ordinal()].setStyle(Paint.Style.STROKE);
+        create(Kind.HORIZON, Horizon.sColor, Horizon.sColor, textSize, Paint.Align.CENTER);
+        mPaints[Kind.HORIZON.ordinal()].setStyle(Paint.Style.STROKE);
+        mPaints[Kind.HORIZON.ordinal()].setStrokeWidth(mHorizonWidth);
+        create(Kind.INFO_TEXT, InfoText.sColor, InfoText.sColor, textSizeSmall, Paint.Align.LEFT);
+        create(Kind.STAR, Star.sColor, Star.sTextColor, textSizeSmall, Paint.Align.LEFT);
+        create(Kind.PLANET, ChartPlanet.sColor, ChartPlanet.sTextColor, textSizeSmall,
+               Paint.Align.LEFT);
+        create(Kind.SUN, Sun.sColor, Sun.sTextColor, textSizeSmall, Paint.Align.LEFT);
+        create(Kind.MOON, Moon.sColor, Moon.sTextColor, textSizeSmall, Paint.Align.LEFT);
+        create(Kind.EQ_GRID, EqGrid.sColor, EqGrid.sColor, textSize, Paint.Align.CENTER);
+        create(Kind.EQUATOR, Equator.sColor, Equator.sColor, 0, Paint.Align.CENTER);
+        create(Kind.ECLIPTIC, Ecliptic.sColor, Ecliptic.sColor, 0, Paint.Align.CENTER);
+        create(Kind.CONST_LINES, ConstLines.sColor, ConstLines.sColor, textSizeSmall,
+               Paint.Align.CENTER);
+        create(Kind.CONST_BOUNDARIES, ConstBoundaries.sColor, ConstBoundaries.sColor, 0,
+               Paint.Align.CENTER);
+
+        for (int b = 0; b < mStarPaints.length; ++b)
+        {
+            mStarPaints[b] = new Paint();
+            mStarPaints[b].setColor(Star.sColor);
+            mStarPaints[b].setStrokeCap(Paint.Cap.ROUND);
+            mStarPaints[b].setStrokeWidth(2 * RoundObject.getBucketRadius(b, mStarSize));
+        }
+    }
+
+    /**
+     * textSize 0 keeps the default size.
+     */
+    private void create(Kind kind, int color, int textColor, float textSize,
+                        Paint.Align align)
+    {
+        Paint paint = new Paint();
+        paint.setColor(color);
+        mPaints[kind.ordinal()] = paint;
+
+        Paint paintText = new Paint();
+        paintText.setColor(textColor);
+        paintText.setTextAlign(align);
+        if (textSize > 0)
+        {
+            paintText.setTextSize(textSize);
+        }
+        mTextPaints[kind.ordinal()] = paintText;
+    }
+
+    Paint getPaint(Kind kind)
+    {
+        return mPaints[kind.ordinal()];
+    }
+
+    Paint getTextPaint(Kind kind)
+    {
+        return mTextPaints[kind.ordinal()];
+    }
+
+    float getStarSize()
+    {
+        return mStarSize;
+    }
+
+    /**
+     * Paint for Canvas.drawPoints() of the stars in a magnitude bucket.
+     */
+    Paint getStarPaint(int bucket)
+    {
+        return mStarPaints[bucket];
+    }
+}
@@ -22,9 +22,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
-import java.util.Iterator;
 
 class OrbitalElements
 {
@@ -44,6 +44,11 @@ class OrbitalElements
     }
 
     OrbitalElements(OrbitalElements o)
+    {
+        set(o);
+    }
+
+    void set(OrbitalElements o)
     {
         MA = o.MA; EC = o.EC; IN = o.IN; OM = o.OM; W = o.W; om = o.om;
         A = o.A; N = o.N; JD = o.JD; dayDiff  = o.dayDiff;
@@ -51,13 +56,123 @@ class OrbitalElements
 }
 
 
+/**
+ * Osculating orbital elements of a planet at ascending epochs. The epochs
+ * are stored in a primitive array, for equidistant epochs the index is
+ * calculated directly, otherwise it is found by binary search.
+ */
+class Ephemeris
+{
+    private double[] mEpochs;
+    private OrbitalElements[] mElements;
+    private double mStep = 0; // > 0 if the epochs are equidistant
+
+    Ephemeris(ArrayList<OrbitalElements> elements)
+    {
+        mElements = elements.toArray(new OrbitalElements[0]);
+        mEpochs = new double[mElements.length];
+        for (int i = 0; i < mElements.length; ++i)
+        {
+            mEpochs[i] = mElements[i].JD;
+        }
+        if (mEpochs.length > 1)
+        {
+            double step = (mEpochs[mEpochs.length - 1] - mEpochs[0]) / (mEpochs.length - 1);
+            boolean isEquidistant = true;
+            for (int i = 0; i < mEpochs.length && isEquidistant; ++i)
+            {
+                isEquidistant = Math.abs(mEpochs[i] - (mEpochs[0] + i * step)) < 1e-6;
+            }
+            mStep = isEquidistant ? step : 0;
+        }
+    }
+
+    /**
+     * Returns the index of the last epoch <= jd, clamped to the valid range.
+     */
+    private int floorIndex(double jd)
+    {
+        int idx;
+        if (mStep > 0)
+        {
+            idx = (int) Math.floor((jd - mEpochs[0]) / mStep);
+        }
+        else
+        {
+            idx = Arrays.binarySearch(mEpochs, jd);
+            if (idx < 0)
+            {
+                idx = -idx - 2; // insertion point - 1
+            }
+        }
+        return Math.min(Math.max(idx, 0), mEpochs.length - 1);
+    }
+
+    /**
+     * Writes the elements of the epoch closest to jd into oe, oe.dayDiff is
+     * set to the difference jd - epoch in days.
+     */
+    void findClosest(double jd, OrbitalElements oe)
+    {
+        int idx = floorIndex(jd);
+        if (idx + 1 < mEpochs.length && mEpochs[idx + 1] - jd < jd - mEpochs[idx])
+        {
+            ++idx;
+        }
+        oe.set(mElements[idx]);
+        oe.dayDiff = jd - mEpochs[idx];
+    }
+
+    /**
+     * Writes elements for jd into oe, linearly interpolated between the
+     * neighbouring epochs. The mean anomaly is propagated to jd from both
+     * epochs before interpolating. Outside of the epochs the closest elements
+     * are propagated. oe.dayDiff is 0.
+     */
+    void interpolate(double jd, OrbitalElements oe)
+    {
+        int idx = floorIndex(jd);
+        if (idx + 1 >= mEpochs.length || jd < mEpochs[idx])
+        {
+            findClosest(jd, oe);
+            oe.MA += oe.N * oe.dayDiff;
+            oe.dayDiff = 0;
+            return;
+        }
+        OrbitalElements e0 = mElements[idx];
+        OrbitalElements e1 = mElements[idx + 1];
+        double f = (jd - e0.JD) / (e1.JD - e0.JD);
+        oe.EC = e0.EC + f * (e1.EC - e0.EC);
+        oe.IN = e0.IN + f * (e1.IN - e0.IN);
+        oe.A  = e0.A + f * (e1.A - e0.A);
+        oe.N  = e0.N + f * (e1.N - e0.N);
+        oe.OM = interpolateAngle(e0.OM, e1.OM, f);
+        oe.W  = interpolateAngle(e0.W, e1.W, f);
+        oe.om = (oe.OM + oe.W) % 360;
+        oe.MA = interpolateAngle(e0.MA + e0.N * (jd - e0.JD),
+                                 e1.MA + e1.N * (jd - e1.JD), f);
+        oe.JD = jd;
+        oe.dayDiff = 0;
+    }
+
+    /**
+     * Interpolate between the angles a and b on the shorter arc.
+     */
+    private static double interpolateAngle(double a, double b, double f)
+    {
+        double diff = ((b - a) % 360 + 540) % 360 - 180;
+        return a + f * diff;
+    }
+}
+
+
 abstract class Planet
 {
-    static Planet[] sPlanets;
-    static Planet sEarth;
+    static Planet[] sPlanets; // null until PlanetCsv.init() is done
 
     protected String mName;
     protected OrbitalElements mOe;
+    private Kepler.StarterTable mStarterTable = new Kepler.StarterTable();
 
     // heliocentric, ecliptical(date/time required)
     public double mHelio_lon = 0;
@@ -79,6 +194,37 @@ abstract class Planet
     // phase
     public double mPhase = 0;
 
+    /**
+     * Create a new instance of each planet. The calculated positions are
+     * stored in the instance, so every thread needs its own planets.
+     * Requires PlanetCsv.init().
+     */
+    static Planet[] createPlanets()
+    {
+        return new Planet[] {new Mercury(), new Venus(), new Mars(),
+                             new Jupiter(), new Saturn(), new Uranus(),
+                             new Neptune()};
+    }
+
+    /**
+     * Create a new instance of the planet with the name.
+     */
+    static Planet createPlanet(String name)
+    {
+        switch (name)
+        {
+            case Mercury.sName: return new Mercury();
+            case Venus.sName:   return new Venus();
+            case Earth.sName:   return new Earth();
+            case Mars.sName:    return new Mars();
+            case Jupiter.sName: return new Jupiter();
+            case Saturn.sName:  return new Saturn();
+            case Uranus.sName:  return new Uranus();
+            case Neptune.sName: return new Neptune();
+        }
+        throw new IllegalArgumentException("unknown planet: " + name);
+    }
+
     Planet(String name, double apparentMagnitude, String wikidataId)
     {
         mName = name;
@@ -94,7 +240,7 @@ abstract class Planet
     protected void calcHeliocentricIntern()
     {
         double E, true_anomaly, omega, u;
-        E = Kepler.calcEccentricAnomaly(mOe.MA, mOe.EC);
+        E = Kepler.calcEccentricAnomaly(mOe.MA, mOe.EC, mStarterTable);
         true_anomaly = Kepler.calcTrueAnomaly(mOe.EC, E);
         mDistance_sun = Kepler.calcDistanceSun(mOe.A, mOe.EC, E);
         omega = mOe.om - mOe.OM;
@@ -125,41 +271,51 @@ abstract class Planet
         mPhase = Astro.calcPhase(mDistance_earth, mDistance_sun, earth.mDistance_sun);
     }
 
-    protected abstract void calcHeliocentric(GregorianCalendar date);
+    protected void calcHeliocentric(GregorianCalendar date)
+    {
+        calcHeliocentric(Astro.julian_date(date));
+    }
+
+    /**
+     * Calculate the heliocentric, ecliptical coordinates for the julian date.
+     */
+    protected abstract void calcHeliocentric(double jd);
 }
 
 
 abstract class PlanetCsv extends Planet
 {
-    private ArrayList<OrbitalElements> mElements;
+    private Ephemeris mEphemeris;
 
-    private static HashMap<String, ArrayList<OrbitalElements>> sPlanetOrbitalElements = new HashMap<>();
+    private static HashMap<String, Ephemeris> sPlanetOrbitalElements = new HashMap<>();
 
-    public static void init(InputStream jupiterStream, InputStream saturnStream,
-                            InputStream uranusStream, InputStream neptuneStream) throws IOException
+    public synchronized static void init(InputStream jupiterStream, InputStream saturnStream,
+                                         InputStream uranusStream,
+                                         InputStream neptuneStream) throws IOException
     {
-        sPlanetOrbitalElements.put(Jupiter.sName, readElements(jupiterStream));
-        sPlanetOrbitalElements.put(Saturn.sName, readElements(saturnStream));
-        sPlanetOrbitalElements.put(Uranus.sName, readElements(uranusStream));
-        sPlanetOrbitalElements.put(Neptune.sName, readElements(neptuneStream));
-
-        Planet.sPlanets = new Planet[] {new Mercury(), new Venus(), new Mars(),
-                                        new Jupiter(), new Saturn(), new Uranus(),
-                                        new Neptune()};
-        Planet.sEarth = new Earth();
+        if (Planet.sPlanets != null)
+        {
+            return;
+        }
+        sPlanetOrbitalElements.put(Jupiter.sName, new Ephemeris(readElements(jupiterStream)));
+        sPlanetOrbitalElements.put(Saturn.sName, new Ephemeris(readElements(saturnStream)));
+        sPlanetOrbitalElements.put(Uranus.sName, new Ephemeris(readElements(uranusStream)));
+        sPlanetOrbitalElements.put(Neptune.sName, new Ephemeris(readElements(neptuneStream)));
+
+        Planet.sPlanets = Planet.createPlanets();
     }
 
     PlanetCsv(String name, double apparentMagnitude, String wikidataId)
     {
         super(name, apparentMagnitude, wikidataId);
-        mElements = PlanetCsv.sPlanetOrbitalElements.get(name);
+        mEphemeris = PlanetCsv.sPlanetOrbitalElements.get(name);
     }
 
     /**
      * Read orbital elements from CSV file oeFile and return a list of
      * OrbitalElement objects.
      */
-    private static ArrayList<OrbitalElements> readElements(InputStream istream) throws IOException
+    static ArrayList<OrbitalElements> readElements(InputStream istream) throws IOException
     {
         BufferedReader fileReader = new BufferedReader(new InputStreamReader(istream));
         ArrayList<OrbitalElements> oeList = new ArrayList<>();
@@ -201,34 +357,13 @@ abstract class PlanetCsv extends Planet
     }
 
     /**
-     * Find closest matching orbital elements for date.
-     * Returns OrbitalElement object, and time difference in days.
+     * The orbital elements are interpolated between the neighbouring epochs,
+     * so the position does not jump halfway between two epochs.
      */
-    protected OrbitalElements findClosestOe(GregorianCalendar date)
-    {
-        double last_diff = Double.MAX_VALUE;
-        OrbitalElements e = null, last_e = null;
-        Iterator<OrbitalElements> oeIt = mElements.iterator();
-        while (oeIt.hasNext())
-        {
-            e = oeIt.next();
-            double diff = Astro.julian_date(date) - e.JD;
-            if (Math.abs(last_diff) < Math.abs(diff))
-            {
-                e = last_e;
-                e.dayDiff = last_diff;
-                break;
-            }
-            last_e = e;
-            last_diff = diff;
-        }
-        return new OrbitalElements(e);
-    }
-
-    protected void calcHeliocentric(GregorianCalendar date)
+    @Override
+    protected void calcHeliocentric(double jd)
     {
-        mOe = findClosestOe(date);
-        mOe.MA += (mOe.N * mOe.dayDiff);
+        mEphemeris.interpolate(jd, mOe);
         calcHeliocentricIntern();
     }
 }
@@ -243,13 +378,14 @@ class Mercury extends Planet
     }
 
     @Override
-    public void calcHeliocentric(GregorianCalendar date)
+    public void calcHeliocentric(double jd)
     {
-        mOe.MA = 174.7947 + 149472.5153  * Astro.julian_century(date);
-        mOe.EC = 0.205634 + 0.000020 * Astro.julian_century(date);
-        mOe.IN = 7.0048 + 0.0019 * Astro.julian_century(date);
-        mOe.OM = 48.331 + 1.185 * Astro.julian_century(date);
-        mOe.om = 77.4552 + 1.5555 * Astro.julian_century(date);
+        double T = Astro.julian_century(jd);
+        mOe.MA = 174.7947 + 149472.5153  * T;
+        mOe.EC = 0.205634 + 0.000020 * T;
+        mOe.IN = 7.0048 + 0.0019 * T;
+        mOe.OM = 48.331 + 1.185 * T;
+        mOe.om = 77.4552 + 1.5555 * T;
         mOe.A  = 0.387099;
         calcHeliocentricIntern();
     }
@@ -264,13 +400,14 @@ class Venus extends Planet
     }
 
     @Override
-    public void calcHeliocentric(GregorianCalendar date)
+    public void calcHeliocentric(double jd)
     {
-        mOe.MA = 50.4071 + 58517.8039 * Astro.julian_century(date);
-        mOe.EC = 0.006773 - 0.000048 * Astro.julian_century(date);
-        mOe.IN = 3.3946 + 0.0010 * Astro.julian_century(date);
-        mOe.OM = 76.680 + 0.900 * Astro.julian_century(date);
-        mOe.om = 131.5718 + 1.4080 * Astro.julian_century(date);
+        double T = Astro.julian_century(jd);
+        mOe.MA = 50.4071 + 58517.8039 * T;
+        mOe.EC = 0.006773 - 0.000048 * T;
+        mOe.IN = 3.3946 + 0.0010 * T;
+        mOe.OM = 76.680 + 0.900 * T;
+        mOe.om = 131.5718 + 1.4080 * T;
         mOe.A = 0.723332;
         calcHeliocentricIntern();
     }
@@ -285,13 +422,14 @@ class Earth extends Planet
     }
 
     @Override
-    protected void calcHeliocentric(GregorianCalendar date)
+    protected void calcHeliocentric(double jd)
     {
-        mOe.MA = 357.5256 + 35999.0498 * Astro.julian_century(date);
-        mOe.EC = 0.016709 - 0.000042 * Astro.julian_century(date);
+        double T = Astro.julian_century(jd);
+        mOe.MA = 357.5256 + 35999.0498 * T;
+        mOe.EC = 0.016709 - 0.000042 * T;
         mOe.IN = 0.0;
         mOe.OM = 0.0;
-        mOe.om = 102.9400 + 1.7192 * Astro.julian_century(date);
+        mOe.om = 102.9400 + 1.7192 * T;
         mOe.A = 1.0;
         calcHeliocentricIntern();
     }
@@ -306,13 +444,14 @@ class Mars extends Planet
     }
 
     @Override
-    public void calcHeliocentric(GregorianCalendar date)
+    public void calcHeliocentric(double jd)
     {
-        mOe.MA = 19.3879 + 19139.8585 * Astro.julian_century(date);
-        mOe.EC = 0.093405 - 0.000092 * Astro.julian_century(date);
-        mOe.IN = 1.8496 - 0.0007 * Astro.julian_century(date);
-        mOe.OM = 49.557 + 0.771 * Astro.julian_century(date);
-        mOe.om = 336.0590 + 0.4438 * Astro.julian_century(date);
+        double T = Astro.julian_century(jd);
+        mOe.MA = 19.3879 + 19139.8585 * T;
+        mOe.EC = 0.093405 - 0.000092 * T;
+        mOe.IN = 1.8496 - 0.0007 * T;
+        mOe.OM = 49.557 + 0.771 * T;
+        mOe.om = 336.0590 + 0.4438 * T;
         mOe.A  = 1.523692;
         calcHeliocentricIntern();
     }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2020 Timo Engel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.tengel.planisphere;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Least recently used cache of rise, set and twilight times. The times of an
+ * event only depend on the object, the UTC day of the chart time and the
+ * location, so each event is calculated once for a day and location and
+ * then formatted in UTC or local time. Locations are rounded to
+ * LOCATION_RESOLUTION. The dates of the previous and next new and full
+ * moons are kept until the time leaves the interval between them.
+ */
+class RiseSetCache
+{
+    private static final int SIZE = 128;
+    private static final double LOCATION_RESOLUTION = 0.01; // degree
+    private static final long MS_PER_DAY = 24 * 60 * 60 * 1000;
+
+    /**
+     * Calculates the time of an event, null if the event does not happen.
+     */
+    interface Calculator
+    {
+        Calendar calc();
+    }
+
+    // time of the event in milliseconds since 1970, null if it does not
+    // happen
+    private final LinkedHashMap<String, Long> mCache =
+        new LinkedHashMap<String, Long>(SIZE, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest)
+            {
+                return size() > SIZE;
+            }
+        };
+
+    // julian dates of the previous and next moon phase
+    private double[] mNewMoons = {0, 0};
+    private double[] mFullMoons = {0, 0};
+
+    /**
+     * Returns the formatted time of the event of the object for the UTC day
+     * of time at the location, calls calculator if it is not cached.
+     *
+     * :param String object: Identifies the object, e.g. "star 42".
+     * :param String event: Identifies the event, e.g. "rise".
+     */
+    synchronized String get(String object, String event, GregorianCalendar time,
+                            double latitude, double longitude, boolean localTime,
+                            Calculator calculator)
+    {
+        String key = String.format(Locale.US, "%s %s %d %d %d", object, event,
+                                   (long) Math.floor((double) time.getTimeInMillis() /
+                                                     MS_PER_DAY),
+                                   Math.round(latitude / LOCATION_RESOLUTION),
+                                   Math.round(longitude / LOCATION_RESOLUTION));
+        Long ms;
+        if (mCache.containsKey(key))
+        {
+            ms = mCache.get(key);
+        }
+        else
+        {
+            Calendar c = calculator.calc();
+            ms = (c == null) ? null : c.getTimeInMillis();
+            mCache.put(key, ms);
+        }
+        if (ms == null)
+        {
+            return Astro.formatCal(null);
+        }
+        Calendar c = new GregorianCalendar(localTime ? TimeZone.getDefault()
+                                                     : TimeZone.getTimeZone("UTC"));
+        c.setTimeInMillis(ms);
+        return Astro.formatCal(c);
+    }
+
+    /**
+     * Returns the julian dates of the new moons before and after jd.
+     */
+    synchronized double[] getNewMoons(double jd)
+    {
+        if (!(mNewMoons[0] < jd && jd < mNewMoons[1]))
+        {
+            mNewMoons = new double[]{Astro.prevNewMoon(jd), Astro.nextNewMoon(jd)};
+        }
+        return mNewMoons;
+    }
+
+    /**
+     * Returns the julian dates of the full moons before and after jd.
+     */
+    synchronized double[] getFullMoons(double jd)
+    {
+        if (!(mFullMoons[0] < jd && jd < mFullMoons[1]))
+        {
+            mFullMoons = new double[]{Astro.prevFullMoon(jd), Astro.nextFullMoon(jd)};
+        }
+        return mFullMoons;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2020 Timo Engel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.tengel.planisphere;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Uniform grid over the paint area to find the chart objects closest to a
+ * point. The grid is built from the chart positions after the objects are
+ * drawn, only objects inside the paint area are indexed.
+ */
+class ScreenIndex
+{
+    private float mCellSize;
+    private float mOriginX = 0;
+    private float mOriginY = 0;
+    private int mColumns = 0;
+    private int mRows = 0;
+    private int mCount = 0;
+    private ChartObject[] mObjects = new ChartObject[0];
+    private int[] mObjectCell = new int[0];
+    private int[] mCellStart = new int[1];  // first item of each cell, cells + 1 entries
+    private int[] mCellNext = new int[0];
+    private int[] mCellItems = new int[0];  // object indices sorted by cell
+
+    ScreenIndex(float cellSize)
+    {
+        mCellSize = cellSize;
+    }
+
+    /**
+     * Index all objects except ObjectType.OTHER at their chart position,
+     * inside the area of width x height starting at (originX, originY).
+     */
+    void build(List<ChartObject> objects, float originX, float originY, int width, int height)
+    {
+        mOriginX = originX;
+        mOriginY = originY;
+        mColumns = Math.max(1, (int) Math.ceil(width / mCellSize));
+        mRows = Math.max(1, (int) Math.ceil(height / mCellSize));
+        int cells = mColumns * mRows;
+        if (mCellStart.length < cells + 1)
+        {
+            mCellStart = new int[cells + 1];
+            mCellNext = new int[cells];
+        }
+        Arrays.fill(mCellStart, 0, cells + 1, 0);
+        if (mObjects.length < objects.size())
+        {
+            mObjects = new ChartObject[objects.size()];
+            mObjectCell = new int[objects.size()];
+            mCellItems = new int[objects.size()];
+        }
+
+        mCount = 0;
+        for (int i = 0; i < objects.size(); ++i)
+        {
+            ChartObject co = objects.get(i);
+            float x = co.getChartX() - originX;
+            float y = co.getChartY() - originY;
+            // objects that are not drawn have no chart position (NaN)
+            if (co.getType() == ObjectType.OTHER ||
+                !(x >= 0 && y >= 0 && x < width && y < height))
+            {
+                continue;
+            }
+            int cell = (int) (y / mCellSize) * mColumns + (int) (x / mCellSize);
+            mObjects[mCount] = co;
+            mObjectCell[mCount] = cell;
+            ++mCellStart[cell + 1];
+            ++mCount;
+        }
+        for (int c = 0; c < cells; ++c)
+        {
+            mCellStart[c + 1] += mCellStart[c];
+            mCellNext[c] = mCellStart[c];
+        }
+        for (int i = 0; i < mCount; ++i)
+        {
+            mCellItems[mCellNext[mObjectCell[i]]++] = i;
+        }
+        Arrays.fill(mObjects, mCount, mObjects.length, null);
+    }
+
+    /**
+     * Remove all objects, nothing is found until the next build().
+     */
+    void clear()
+    {
+        mColumns = 0;
+        mRows = 0;
+        mCount = 0;
+        Arrays.fill(mObjects, null);
+    }
+
+    /**
+     * Returns up to count objects within maxDistance of (x, y), the closest
+     * object first.
+     */
+    ChartObject[] findNearest(float x, float y, int count, float maxDistance)
+    {
+        ChartObject[] found = new ChartObject[count];
+        float[] distances = new float[count];
+        int n = 0;
+        x -= mOriginX;
+        y -= mOriginY;
+        int column = Math.min(Math.max((int) (x / mCellSize), 0), mColumns - 1);
+        int row = Math.min(Math.max((int) (y / mCellSize), 0), mRows - 1);
+        int ringMax = Math.max(Math.max(column, mColumns - 1 - column),
+                               Math.max(row, mRows - 1 - row));
+
+        for (int ring = 0; ring <= ringMax; ++ring)
+        {
+            // objects in this ring are at least this far away
+            float ringDistance = (ring - 1) * mCellSize;
+            if (ringDistance > maxDistance || (n == count && ringDistance > distances[n - 1]))
+            {
+                break;
+            }
+            for (int r = row - ring; r <= row + ring; ++r)
+            {
+                if (r < 0 || r >= mRows)
+                {
+                    continue;
+                }
+                boolean isEdgeRow = (r == row - ring || r == row + ring);
+                int step = isEdgeRow ? 1 : 2 * ring;
+                for (int c = column - ring; c <= column + ring; c += Math.max(step, 1))
+                {
+                    if (c < 0 || c >= mColumns)
+                    {
+                        continue;
+                    }
+                    int cell = r * mColumns + c;
+                    for (int i = mCellStart[cell]; i < mCellStart[cell + 1]; ++i)
+                    {
+                        ChartObject co = mObjects[mCellItems[i]];
+                        float dx = co.getChartX() - mOriginX - x;
+                        float dy = co.getChartY() - mOriginY - y;
+                        float distance = (float) Math.sqrt(dx * dx + dy * dy);
+                        if (distance > maxDistance ||
+                            (n == count && distance >= distances[n - 1]))
+                        {
+                            continue;
+                        }
+                        // insertion into the sorted result
+                        int pos = (n == count) ? n - 1 : n++;
+                        while (pos > 0 && distances[pos - 1] > distance)
+                        {
+                            distances[pos] = distances[pos - 1];
+                            found[pos] = found[pos - 1];
+                            --pos;
+                        }
+                        distances[pos] = distance;
+                        found[pos] = co;
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(found, n);
+    }
+}
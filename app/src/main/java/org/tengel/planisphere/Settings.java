@@ -55,10 +55,11 @@ public class Settings
     private boolean mToolbarIsVisible = true;
     private boolean mKeepScreenOn;
     private boolean mAutoUpdate;
-    private ChartObject[] mNearbyObjects = null;
+    private ObjectInfo[] mNearbyObjects = null;
     private boolean mOnlyVisiblePlanets;
     private float mFontScale;
     private boolean mAdjustTimeVolume;
+    private int mGeneration = 0;
     private static final int LANG_SYSDEFAULT_INTERNAL = 9999; // stored in SharedPreferences
     private static final int LANG_SYSDEFAULT_IDX = 9;
 
@@ -136,6 +137,16 @@ public class Settings
         mCurrentTime = new GregorianCalendar();
     }
 
+    /**
+     * Store a setting which changes the chart objects, they are created
+     * again on the next update.
+     */
+    private void storeComposition()
+    {
+        ++mGeneration;
+        store();
+    }
+
     private void store()
     {
         SharedPreferences.Editor spe = mPref.edit();
@@ -168,6 +179,16 @@ public class Settings
         spe.apply();
     }
 
+    /**
+     * Returns a counter which is incremented whenever a setting changes the
+     * chart objects, not for the location or time. Used to detect when the
+     * chart objects have to be rebuilt.
+     */
+    public int getGeneration()
+    {
+        return mGeneration;
+    }
+
     public int getStyle()
     {
         return mStyle;
@@ -193,7 +214,7 @@ public class Settings
     public void setStyle(int style)
     {
         mStyle = style;
-        store();
+        storeComposition();
     }
 
     public void setStyleIndex(int styleIndex)
@@ -210,7 +231,7 @@ public class Settings
         {
             mStyle = R.style.AppThemeNight;
         }
-        store();
+        storeComposition();
     }
 
     public boolean isHorizonEnabled()
@@ -221,7 +242,7 @@ public class Settings
     public void setHorizonEnabled(boolean horizonEnabled)
     {
         mHorizonEnabled = horizonEnabled;
-        store();
+        storeComposition();
     }
 
     public boolean isEquatorEnabled()
@@ -232,7 +253,7 @@ public class Settings
     public void setEquatorEnabled(boolean equatorEnabled)
     {
         mEquatorEnabled = equatorEnabled;
-        store();
+        storeComposition();
     }
 
     public boolean isEclipticEnabled()
@@ -243,7 +264,7 @@ public class Settings
     public void setEclipticEnabled(boolean eclipticEnabled)
     {
         mEclipticEnabled = eclipticEnabled;
-        store();
+        storeComposition();
     }
 
     public boolean isAzGridEnabled()
@@ -254,7 +275,7 @@ public class Settings
     public void setAzGridEnabled(boolean azGridEnabled)
     {
         mAzGridEnabled = azGridEnabled;
-        store();
+        storeComposition();
     }
 
     public boolean isEqGridEnabled()
@@ -265,7 +286,7 @@ public class Settings
     public void setEqGridEnabled(boolean eqGridEnabled)
     {
         mEqGridEnabled = eqGridEnabled;
-        store();
+        storeComposition();
     }
 
     public boolean isConstLinesEnabled()
@@ -276,7 +297,7 @@ public class Settings
     public void setConstLinesEnabled(boolean constLinesEnabled)
     {
         mConstLinesEnabled = constLinesEnabled;
-        store();
+        storeComposition();
     }
 
     public boolean isConstBoundEnabled()
@@ -287,7 +308,7 @@ public class Settings
     public void setConstBoundEnabled(boolean constBoundEnabled)
     {
         mConstBoundEnabled = constBoundEnabled;
-        store();
+        storeComposition();
     }
 
     public boolean isConstNamesEnabled()
@@ -298,7 +319,7 @@ public class Settings
     public void setConstNamesEnabled(boolean constNamesEnabled)
     {
         mConstNamesEnabled = constNamesEnabled;
-        store();
+        storeComposition();
     }
 
     public boolean isSolarSystemEnabled()
@@ -309,7 +330,7 @@ public class Settings
     public void setSolarSystemEnabled(boolean solarSystemEnabled)
     {
         mSolarSystemEnabled = solarSystemEnabled;
-        store();
+        storeComposition();
     }
 
     public boolean isSolarNamesEnabled()
@@ -320,7 +341,7 @@ public class Settings
     public void setSolarNamesEnabled(boolean solarNamesEnabled)
     {
         mSolarNamesEnabled = solarNamesEnabled;
-        store();
+        storeComposition();
     }
 
     public boolean isStarsEnabled()
@@ -331,7 +352,7 @@ public class Settings
     public void setStarsEnabled(boolean starsEnabled)
     {
         mStarsEnabled = starsEnabled;
-        store();
+        storeComposition();
     }
 
     public int getMaxMagnitude()
@@ -342,7 +363,7 @@ public class Settings
     public void setMaxMagnitude(int maxMagnitude)
     {
         mMaxMagnitude = maxMagnitude;
-        store();
+        storeComposition();
     }
 
     public boolean isGpsEnabled()
@@ -400,7 +421,7 @@ public class Settings
         {
             mConstLanguage = constLanguage;
         }
-        store();
+        storeComposition();
     }
 
     public String translateName(String s)
@@ -408,6 +429,15 @@ public class Settings
         return mTranslations.get(s);
     }
 
+    /**
+     * Returns a copy of the translated names of the sun, the moon and the
+     * planets.
+     */
+    HashMap<String, String> copyTranslations()
+    {
+        return new HashMap<>(mTranslations);
+    }
+
     public String getLanguage()
     {
         return mLanguage;
@@ -455,12 +485,12 @@ public class Settings
         store();
     }
 
-    public ChartObject[] getNearbyObjects()
+    ObjectInfo[] getNearbyObjects()
     {
         return mNearbyObjects;
     }
 
-    public void setNearbyObjects(ChartObject[] objects)
+    void setNearbyObjects(ObjectInfo[] objects)
     {
         mNearbyObjects = objects;
     }
@@ -473,7 +503,7 @@ public class Settings
     public void setOnlyVisiblePlanets(boolean onlyVisiblePlanets)
     {
         mOnlyVisiblePlanets = onlyVisiblePlanets;
-        store();
+        storeComposition();
     }
 
     public void setLastGpsLatLon(float latitude, float longitude)
@@ -501,7 +531,7 @@ public class Settings
     public void setFontScale(float fontScale)
     {
         mFontScale = fontScale;
-        store();
+        storeComposition();
     }
 
     public boolean isStarNamesEnabled()
@@ -512,7 +542,7 @@ public class Settings
     public void setStarNamesEnabled(boolean starNamesEnabled)
     {
         mStarNamesEnabled = starNamesEnabled;
-        store();
+        storeComposition();
     }
 
     public float getTextSize()
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2020 Timo Engel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.tengel.planisphere;
+
+/**
+ * The rectangle of the paint area that is drawn, in paint area coordinates
+ * and as the range of horizontal coordinates that can be projected into it.
+ * Objects outside of the viewport are not drawn.
+ */
+class Viewport
+{
+    // outcodes of points outside of the rectangle
+    static final int LEFT = 1;
+    static final int RIGHT = 2;
+    static final int TOP = 4;
+    static final int BOTTOM = 8;
+
+    private float mLeft;
+    private float mTop;
+    private float mRight;
+    private float mBottom;
+    private double mEleMin;
+    private double mEleMax;
+    private boolean mIsAzLimited;
+    private double mAzCenter;
+    private double mAzMin;     // relative to mAzCenter
+    private double mAzMax;
+
+    /**
+     * Set the rectangle (left, top, right, bottom), extended by padding on
+     * each side, for the projection with the zenith at (centerX, centerY)
+     * and hPixel pixels per degree elevation.
+     */
+    void set(float left, float top, float right, float bottom, float padding,
+             double centerX, double centerY, double hPixel)
+    {
+        mLeft = left - padding;
+        mTop = top - padding;
+        mRight = right + padding;
+        mBottom = bottom + padding;
+
+        // distance of the closest and the farthest point to the zenith
+        double dx = Math.max(Math.max(mLeft - centerX, centerX - mRight), 0);
+        double dy = Math.max(Math.max(mTop - centerY, centerY - mBottom), 0);
+        double distanceMin = Math.sqrt(dx * dx + dy * dy);
+        dx = Math.max(Math.abs(mLeft - centerX), Math.abs(mRight - centerX));
+        dy = Math.max(Math.abs(mTop - centerY), Math.abs(mBottom - centerY));
+        double distanceMax = Math.sqrt(dx * dx + dy * dy);
+        mEleMax = 90 - distanceMin / hPixel;
+        mEleMin = 90 - distanceMax / hPixel;
+
+        // the rectangle covers all azimuths if it contains the zenith,
+        // otherwise less than 180 degrees around the azimuth of its center
+        mIsAzLimited = distanceMin > 0;
+        if (mIsAzLimited)
+        {
+            mAzCenter = azimuth((mLeft + mRight) / 2 - centerX, (mTop + mBottom) / 2 - centerY);
+            mAzMin = 0;
+            mAzMax = 0;
+            float[] x = {mLeft, mRight};
+            float[] y = {mTop, mBottom};
+            for (float cornerX : x)
+            {
+                for (float cornerY : y)
+                {
+                    double az = relativeAzimuth(azimuth(cornerX - centerX, cornerY - centerY));
+                    mAzMin = Math.min(mAzMin, az);
+                    mAzMax = Math.max(mAzMax, az);
+                }
+            }
+        }
+    }
+
+    float getLeft()
+    {
+        return mLeft;
+    }
+
+    float getTop()
+    {
+        return mTop;
+    }
+
+    float getRight()
+    {
+        return mRight;
+    }
+
+    float getBottom()
+    {
+        return mBottom;
+    }
+
+    /**
+     * Returns false if the horizontal coordinates are projected outside of
+     * the viewport.
+     */
+    boolean contains(double azimuth, double elevation)
+    {
+        if (elevation < mEleMin || elevation > mEleMax)
+        {
+            return false;
+        }
+        if (mIsAzLimited)
+        {
+            double az = relativeAzimuth(azimuth);
+            return az >= mAzMin && az <= mAzMax;
+        }
+        return true;
+    }
+
+    /**
+     * Returns false if the paint area coordinates are outside of the viewport.
+     */
+    boolean contains(float x, float y)
+    {
+        return outcode(x, y) == 0;
+    }
+
+    /**
+     * Returns the sides of the viewport (LEFT, RIGHT, TOP, BOTTOM) the paint
+     * area coordinates are outside of. A line is outside of the viewport if
+     * the outcodes of its end points have a common bit.
+     */
+    int outcode(float x, float y)
+    {
+        int code = 0;
+        if (x < mLeft)
+        {
+            code |= LEFT;
+        }
+        else if (x > mRight)
+        {
+            code |= RIGHT;
+        }
+        if (y < mTop)
+        {
+            code |= TOP;
+        }
+        else if (y > mBottom)
+        {
+            code |= BOTTOM;
+        }
+        return code;
+    }
+
+    /**
+     * Azimuth of the paint area offset (dx, dy) from the zenith, see
+     * DrawArea.horizontal2area().
+     */
+    private static double azimuth(double dx, double dy)
+    {
+        return Math.toDegrees(Math.atan2(dx, dy));
+    }
+
+    /**
+     * Returns the azimuth relative to the center azimuth in (-180, 180].
+     */
+    private double relativeAzimuth(double azimuth)
+    {
+        double az = (azimuth - mAzCenter) % 360;
+        if (az > 180)
+        {
+            az -= 360;
+        }
+        else if (az <= -180)
+        {
+            az += 360;
+        }
+        return az;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2020 Timo Engel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.tengel.planisphere.dialog;
+
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.os.Bundle;
+import org.tengel.planisphere.R;
+import androidx.fragment.app.DialogFragment;
+
+public class AnimationDialog extends DialogFragment
+{
+    // chart time in seconds per second, the names are R.array.animation_speeds
+    private static final int[] SPEEDS = {600, 3600, 86400};
+
+    private AnimationListener mListener;
+
+    @Override
+    public void onAttach(Context context)
+    {
+        super.onAttach(context);
+        try
+        {
+            mListener = (AnimationListener) context;
+        }
+        catch (ClassCastException e)
+        {
+            throw new ClassCastException(context.toString()
+                    + " must implement AnimationListener");
+        }
+    }
+
+    @Override
+    public Dialog onCreateDialog(Bundle savedInstanceState)
+    {
+        // backward from the fastest speed, then forward
+        final int count = SPEEDS.length;
+        String[] speedNames = getResources().getStringArray(R.array.animation_speeds);
+        String[] items = new String[2 * count];
+        for (int i = 0; i < count; ++i)
+        {
+            items[i] = getString(R.string.animationBackward, speedNames[count - 1 - i]);
+            items[count + i] = getString(R.string.animationForward, speedNames[i]);
+        }
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+        builder.setTitle(R.string.action_animation);
+        builder.setItems(items, new DialogInterface.OnClickListener()
+        {
+            @Override
+            public void onClick(DialogInterface dialog, int which)
+            {
+                if (which < count)
+                {
+                    mListener.startAnimation(-SPEEDS[count - 1 - which]);
+                }
+                else
+                {
+                    mListener.startAnimation(SPEEDS[which - count]);
+                }
+            }
+        });
+        builder.setPositiveButton(R.string.animationStop, new DialogInterface.OnClickListener()
+        {
+            @Override
+            public void onClick(DialogInterface dialog, int id)
+            {
+                mListener.stopAnimation();
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, null);
+        return builder.create();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2020 Timo Engel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.tengel.planisphere.dialog;
+
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.content.Context;
+import android.os.Bundle;
+import android.view.View;
+import android.widget.ArrayAdapter;
+import android.widget.LinearLayout;
+import android.widget.ListView;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+import org.tengel.planisphere.R;
+import java.util.ArrayList;
+import androidx.fragment.app.DialogFragment;
+
+/**
+ * Table of the rise, set, culmination and twilight times of the night. The
+ * events are requested from the activity, so they are not stored in the
+ * arguments. A progress bar is shown until they are calculated.
+ */
+public class NightEventsDialog extends DialogFragment
+{
+    private NightEventsListener mListener;
+    private ProgressBar mProgress;
+    private TextView mStatus;
+    private ListView mList;
+
+    @Override
+    public void onAttach(Context context)
+    {
+        super.onAttach(context);
+        try
+        {
+            mListener = (NightEventsListener) context;
+        }
+        catch (ClassCastException e)
+        {
+            throw new ClassCastException(context.toString()
+                    + " must implement NightEventsListener");
+        }
+    }
+
+    @Override
+    public Dialog onCreateDialog(Bundle savedInstanceState)
+    {
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+        builder.setTitle(R.string.night_events);
+        int padding = Math.round(16 * getResources().getDisplayMetrics().density);
+        LinearLayout layout = new LinearLayout(getContext());
+        layout.setOrientation(LinearLayout.VERTICAL);
+        mProgress = new ProgressBar(getContext());
+        mProgress.setIndeterminate(true);
+        mProgress.setPadding(padding, padding, padding, 0);
+        layout.addView(mProgress);
+        mStatus = new TextView(getContext());
+        mStatus.setText(R.string.nightEventsCalculating);
+        mStatus.setPadding(padding, padding, padding, padding);
+        layout.addView(mStatus);
+        mList = new ListView(getContext());
+        mList.setVisibility(View.GONE);
+        layout.addView(mList);
+        builder.setView(layout);
+        builder.setPositiveButton(R.string.ok, null);
+        mListener.requestNightEvents();
+        return builder.create();
+    }
+
+    /**
+     * Show the calculated rows instead of the progress bar.
+     */
+    public void setEvents(ArrayList<String> events)
+    {
+        if (mList == null)
+        {
+            return;
+        }
+        mProgress.setVisibility(View.GONE);
+        if (events.isEmpty())
+        {
+            mStatus.setText(R.string.nightEventsNone);
+            return;
+        }
+        mStatus.setVisibility(View.GONE);
+        mList.setAdapter(new ArrayAdapter<>(getContext(),
+                android.R.layout.simple_list_item_1, events));
+        mList.setVisibility(View.VISIBLE);
+    }
+}
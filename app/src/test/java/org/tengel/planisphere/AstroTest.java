@@ -96,6 +96,75 @@ public class AstroTest
         assertEquals("elevation", ah[1], 53.0068, 0.00005);
     }
 
+    @Test
+    public void geoEqua2geoHoriBatch()
+    {
+        double lst = 18;
+        double[] ra = {16, 0, 5.5, 23.9, 12};
+        double[] dec = {20, 89.5, -30, 0, -60};
+        double[] azEle = new double[ra.length * 2];
+        Astro.geoEqua2geoHori(lst, 48, ra, dec, ra.length, azEle);
+        assertEquals("azimuth", azEle[0], 51.3375, 0.00005);
+        assertEquals("elevation", azEle[1], 53.0068, 0.00005);
+        for (int i = 0; i < ra.length; ++i)
+        {
+            double[] ah = Astro.geoEqua2geoHori((lst - ra[i]) * 15.0, 48, dec[i]);
+            assertEquals("azimuth " + i, ah[0], azEle[i * 2], 1e-9);
+            assertEquals("elevation " + i, ah[1], azEle[i * 2 + 1], 1e-9);
+        }
+    }
+
+    @Test
+    public void equa2horiMatrix()
+    {
+        double[] m = new double[9];
+        double[] xyz = new double[3];
+        double[] azEle = new double[2];
+        for (double phi = -80; phi <= 80; phi += 40)
+        {
+            Astro.equa2horiMatrix(18, phi, m);
+            for (double ra = 0; ra < 24; ra += 1.7)
+            {
+                for (double dec = -85; dec <= 85; dec += 17)
+                {
+                    Astro.equatorialUnitVector(ra, dec, xyz, 0);
+                    Astro.unitVector2geoHori(m, xyz, 0, azEle);
+                    double[] ah = Astro.geoEqua2geoHori((18 - ra) * 15.0, phi, dec);
+                    assertEquals("azimuth", ah[0], azEle[0], 1e-9);
+                    assertEquals("elevation", ah[1], azEle[1], 1e-9);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void boundingCap()
+    {
+        // a boundary like Orion and one that wraps around right ascension 0
+        double[] ra = {4.7, 6.4, 6.4, 4.7, 23.9, 0.3, 0.3, 23.9};
+        double[] dec = {-11, -11, 23, 23, 2, 2, 10, 10};
+        double[] center = new double[3];
+        double[] xyz = new double[3];
+        double[] sinRadiusMax = {0.4, 0.1};
+        for (int offset = 0; offset <= 4; offset += 4)
+        {
+            double sinRadius = Astro.boundingCap(ra, dec, offset, 4, center, 0);
+            assertEquals(1, Math.sqrt(center[0] * center[0] + center[1] * center[1] +
+                                      center[2] * center[2]), 1e-12);
+            double cosRadius = Math.sqrt(1 - sinRadius * sinRadius);
+            boolean isOnBorder = false;
+            for (int i = offset; i < offset + 4; ++i)
+            {
+                Astro.equatorialUnitVector(ra[i], dec[i], xyz, 0);
+                double cos = center[0] * xyz[0] + center[1] * xyz[1] + center[2] * xyz[2];
+                assertTrue(cos >= cosRadius - 1e-12);
+                isOnBorder |= Math.abs(cos - cosRadius) < 1e-12;
+            }
+            assertTrue(isOnBorder);
+            assertTrue(sinRadius < sinRadiusMax[offset / 4]);
+        }
+    }
+
     @Test
     public void orbit2helioEcl()
     {
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2020 Timo Engel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.tengel.planisphere;
+
+import org.junit.Test;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import static org.junit.Assert.*;
+
+public class EphemerisTest
+{
+    private static ArrayList<OrbitalElements> readJupiter() throws IOException
+    {
+        return PlanetCsv.readElements(
+            new FileInputStream("src/main/res/raw/horizons_jupiter.csv"));
+    }
+
+    private static void initPlanets() throws IOException
+    {
+        PlanetCsv.init(new FileInputStream("src/main/res/raw/horizons_jupiter.csv"),
+                       new FileInputStream("src/main/res/raw/horizons_saturn.csv"),
+                       new FileInputStream("src/main/res/raw/horizons_uranus.csv"),
+                       new FileInputStream("src/main/res/raw/horizons_neptune.csv"));
+    }
+
+    private static double angleDiff(double a, double b)
+    {
+        return Math.abs(((a - b) % 360 + 540) % 360 - 180);
+    }
+
+    private static void checkClosest(ArrayList<OrbitalElements> elements)
+    {
+        Ephemeris ephemeris = new Ephemeris(elements);
+        double first = elements.get(0).JD;
+        double last = elements.get(elements.size() - 1).JD;
+        OrbitalElements oe = new OrbitalElements();
+        for (double jd = first - 1000; jd < last + 1000; jd += 37.3)
+        {
+            OrbitalElements expected = elements.get(0);
+            for (OrbitalElements e : elements)
+            {
+                if (Math.abs(jd - e.JD) < Math.abs(jd - expected.JD))
+                {
+                    expected = e;
+                }
+            }
+            ephemeris.findClosest(jd, oe);
+            assertEquals(expected.JD, oe.JD, 0);
+            assertEquals(expected.MA, oe.MA, 0);
+            assertEquals(jd - expected.JD, oe.dayDiff, 1e-9);
+        }
+    }
+
+    @Test
+    public void closest() throws IOException
+    {
+        ArrayList<OrbitalElements> elements = readJupiter();
+        checkClosest(elements);
+        elements.remove(10); // not equidistant, binary search
+        checkClosest(elements);
+    }
+
+    @Test
+    public void interpolate() throws IOException
+    {
+        // every second epoch, the others are used as reference
+        ArrayList<OrbitalElements> elements = readJupiter();
+        ArrayList<OrbitalElements> even = new ArrayList<>();
+        for (int i = 0; i < elements.size(); i += 2)
+        {
+            even.add(elements.get(i));
+        }
+        Ephemeris ephemeris = new Ephemeris(even);
+        OrbitalElements oe = new OrbitalElements();
+        double errorClosest = 0;
+        double errorInterpolated = 0;
+        for (int i = 1; i + 1 < elements.size(); i += 2)
+        {
+            OrbitalElements expected = elements.get(i);
+            ephemeris.findClosest(expected.JD, oe);
+            errorClosest += angleDiff(oe.MA + oe.N * oe.dayDiff, expected.MA);
+            ephemeris.interpolate(expected.JD, oe);
+            assertEquals(expected.EC, oe.EC, 1e-3);
+            assertEquals(expected.A, oe.A, 1e-2);
+            errorInterpolated += angleDiff(oe.MA, expected.MA);
+        }
+        assertTrue(errorInterpolated < errorClosest);
+    }
+
+    /**
+     * The position of a planet from the Horizons elements is continuous
+     * halfway between two epochs, where the closest epoch changes.
+     */
+    @Test
+    public void planetPosition() throws IOException
+    {
+        initPlanets();
+        ArrayList<OrbitalElements> elements = readJupiter();
+        Ephemeris ephemeris = new Ephemeris(elements);
+        Planet jupiter = new Jupiter();
+        Planet closest = new Jupiter();
+        double delta = 1e-3; // days
+        double maxJump = 0;
+        double maxJumpClosest = 0;
+        for (int i = 0; i + 1 < elements.size(); ++i)
+        {
+            double mid = (elements.get(i).JD + elements.get(i + 1).JD) / 2;
+            double[] lon = new double[2];
+            double[] lonClosest = new double[2];
+            for (int k = 0; k < 2; ++k)
+            {
+                double jd = mid + (k == 0 ? -delta : delta);
+                jupiter.calcHeliocentric(jd);
+                lon[k] = jupiter.mHelio_lon;
+                // previous lookup of the closest epoch
+                ephemeris.findClosest(jd, closest.mOe);
+                closest.mOe.MA += closest.mOe.N * closest.mOe.dayDiff;
+                closest.calcHeliocentricIntern();
+                lonClosest[k] = closest.mHelio_lon;
+            }
+            maxJump = Math.max(maxJump, angleDiff(lon[0], lon[1]));
+            maxJumpClosest = Math.max(maxJumpClosest, angleDiff(lonClosest[0], lonClosest[1]));
+        }
+        assertEquals(0, maxJump, 1e-3);
+        assertTrue(maxJump < maxJumpClosest);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2020 Timo Engel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.tengel.planisphere;
+
+import org.junit.Test;
+import java.util.Random;
+import static org.junit.Assert.*;
+
+public class FastMathTest
+{
+    private static final double MAX_ERROR = 5e-10;
+
+    @Test
+    public void sinCos()
+    {
+        double[] sc = new double[3];
+        Random random = new Random(42);
+        for (int i = 0; i < 1000000; ++i)
+        {
+            double x = (random.nextDouble() * 2 - 1) * (i % 2 == 0 ? 10 : 1e5);
+            FastMath.sinCos(x, sc, 1);
+            assertEquals("sin " + x, Math.sin(x), sc[1], MAX_ERROR);
+            assertEquals("cos " + x, Math.cos(x), sc[2], MAX_ERROR);
+        }
+        for (int q = -8; q <= 8; ++q)
+        {
+            double x = q * Math.PI / 4;
+            FastMath.sinCos(x, sc, 0);
+            assertEquals(Math.sin(x), sc[0], MAX_ERROR);
+            assertEquals(Math.cos(x), sc[1], MAX_ERROR);
+        }
+    }
+
+    @Test
+    public void atan2()
+    {
+        Random random = new Random(42);
+        for (int i = 0; i < 1000000; ++i)
+        {
+            double y = random.nextDouble() * 2 - 1;
+            double x = random.nextDouble() * 2 - 1;
+            if (i % 3 == 0)
+            {
+                x *= 1e-12;
+            }
+            assertEquals("atan2 " + y + " " + x, Math.atan2(y, x), FastMath.atan2(y, x),
+                         MAX_ERROR);
+        }
+        assertEquals(0, FastMath.atan2(0, 0), 0);
+        assertEquals(Math.PI, FastMath.atan2(0, -1), 0);
+        assertEquals(Math.PI / 2, FastMath.atan2(1, 0), 0);
+        assertEquals(-Math.PI / 2, FastMath.atan2(-1, 0), 0);
+        assertEquals(-Math.PI / 4, FastMath.atan2(-2, 2), MAX_ERROR);
+    }
+
+    @Test
+    public void geoEqua2geoHori()
+    {
+        double[] ra = new double[1000];
+        double[] dec = new double[ra.length];
+        Random random = new Random(42);
+        for (int i = 0; i < ra.length; ++i)
+        {
+            ra[i] = random.nextDouble() * 24;
+            dec[i] = random.nextDouble() * 180 - 90;
+        }
+        double[] exact = new double[2 * ra.length];
+        double[] fast = new double[exact.length];
+        Astro.geoEqua2geoHori(123.4, 52.5, ra, dec, 0, ra.length, exact, false, null);
+        Astro.geoEqua2geoHori(123.4, 52.5, ra, dec, 0, ra.length, fast, true, new double[4]);
+        for (int i = 0; i < exact.length; ++i)
+        {
+            double diff = Math.abs(exact[i] - fast[i]);
+            assertEquals(0, Math.min(diff, 360 - diff), Math.toDegrees(1e-9));
+        }
+    }
+}
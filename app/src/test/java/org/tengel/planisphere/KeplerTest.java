@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2020 Timo Engel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.tengel.planisphere;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class KeplerTest
+{
+    /**
+     * The Newton iteration in degrees used before, starting with E = M.
+     */
+    private static double newtonDegree(double meanAnomaly, double eccentricity)
+    {
+        double E = meanAnomaly;
+        while (true)
+        {
+            double next = (E - ((meanAnomaly - E + (180 / Math.PI) * eccentricity *
+                                 Astro.sin(E)) / (eccentricity * Astro.cos(E) - 1)));
+            if (Math.abs(E - next) < 0.00001)
+            {
+                return next;
+            }
+            E = next;
+        }
+    }
+
+    @Test
+    public void residual()
+    {
+        for (double e = 0; e < 0.995; e += 0.01)
+        {
+            for (double m = -4 * Math.PI; m <= 4 * Math.PI; m += 0.01)
+            {
+                double E = Kepler.calcEccentricAnomalyRad(m, e, null);
+                assertEquals("e=" + e + " M=" + m, m, E - e * Math.sin(E), 1e-11);
+                assertTrue("same revolution", Math.abs(E - m) <= Math.PI);
+            }
+        }
+    }
+
+    @Test
+    public void degree()
+    {
+        // eccentricities of Mercury, Venus, Earth, Mars
+        double[] eccentricities = {0.205634, 0.006773, 0.016709, 0.093405};
+        for (double e : eccentricities)
+        {
+            for (double m = -720; m <= 720; m += 0.7)
+            {
+                assertEquals(newtonDegree(m, e), Kepler.calcEccentricAnomaly(m, e), 1e-5);
+            }
+        }
+    }
+
+    @Test
+    public void starterTable()
+    {
+        Kepler.StarterTable table = new Kepler.StarterTable();
+        for (double e = Kepler.TABLE_ECCENTRICITY; e < 0.995; e += 0.0331)
+        {
+            for (double m = -400; m <= 400; m += 0.37)
+            {
+                assertEquals(Kepler.calcEccentricAnomaly(m, e),
+                             Kepler.calcEccentricAnomaly(m, e, table), 1e-9);
+            }
+            assertTrue(table.isValid(e));
+        }
+    }
+
+    @Test
+    public void scratchPlanet() throws InterruptedException
+    {
+        Planet mars = Kepler.getScratchPlanet(Mars.sName);
+        assertSame(mars, Kepler.getScratchPlanet(Mars.sName));
+        assertEquals(Mars.sName, mars.mName);
+        final Planet[] other = new Planet[1];
+        Thread thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                other[0] = Kepler.getScratchPlanet(Mars.sName);
+            }
+        });
+        thread.start();
+        thread.join();
+        assertNotSame(mars, other[0]);
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2020 Timo Engel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.tengel.planisphere;
+
+import org.junit.Test;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.TimeZone;
+import static org.junit.Assert.*;
+
+public class NightEventsTest
+{
+    private static final double LAT = 51.31;
+    private static final double LON = 9.49;
+    private static final double MINUTE = 1 / 1440.0;
+
+    /**
+     * The rise/set functions return the event closest to noon UT, which may
+     * be on the next day.
+     */
+    private interface RiseSet
+    {
+        Calendar calc(GregorianCalendar day);
+    }
+
+    private static void assertEvent(NightEvents.Event e, RiseSet riseSet)
+    {
+        Calendar c = Astro.jd2calendar(e.getJd());
+        GregorianCalendar day = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        day.clear();
+        day.set(c.get(Calendar.YEAR), c.get(Calendar.MONTH), c.get(Calendar.DAY_OF_MONTH));
+        double expected = Astro.julian_date(riseSet.calc(day));
+        day.add(Calendar.DAY_OF_MONTH, -1);
+        double previousDay = Astro.julian_date(riseSet.calc(day));
+        if (Math.abs(previousDay - e.getJd()) < Math.abs(expected - e.getJd()))
+        {
+            expected = previousDay;
+        }
+        assertEquals(e.getName() + " " + e.getType(), expected, e.getJd(), MINUTE);
+    }
+
+    @Test
+    public void starAndSun()
+    {
+        GregorianCalendar time = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        time.set(2020, Calendar.MARCH, 1, 20, 0, 0);
+        NightEvents nightEvents = new NightEvents(time, LAT, LON);
+        nightEvents.addStar("star", 5.2, 20.4);
+        nightEvents.addSun("sun");
+        List<NightEvents.Event> events = nightEvents.getEvents();
+
+        double start = nightEvents.getStart();
+        double jd = Astro.julian_date(time);
+        assertTrue("window contains the time", start <= jd && jd < start + 1);
+        assertEquals("night starts", NightEvents.Type.CIVIL_DUSK, events.get(0).getType());
+        assertEquals("night ends", NightEvents.Type.CIVIL_DAWN,
+                     events.get(events.size() - 1).getType());
+
+        int rise = 0;
+        int set = 0;
+        int culmination = 0;
+        int twilight = 0;
+        double previous = start;
+        for (NightEvents.Event e : events)
+        {
+            assertTrue("sorted", e.getJd() >= previous);
+            assertTrue("inside the window", e.getJd() <= start + 1);
+            previous = e.getJd();
+            final NightEvents.Type type = e.getType();
+            if (e.getName().equals("star"))
+            {
+                if (e.getType() == NightEvents.Type.CULMINATION)
+                {
+                    double lst = Astro.mod(Astro.sidereal_time(e.getJd()) + LON / 15, 24);
+                    assertEquals("hour angle of culmination", 5.2, lst, 0.001);
+                    ++culmination;
+                    continue;
+                }
+                assertEvent(e, new RiseSet()
+                {
+                    @Override
+                    public Calendar calc(GregorianCalendar day)
+                    {
+                        return Astro.calcRiseSet_star(LON, LAT, day, 5.2, 20.4,
+                                                      type == NightEvents.Type.RISE);
+                    }
+                });
+                rise += (type == NightEvents.Type.RISE) ? 1 : 0;
+                set += (type == NightEvents.Type.SET) ? 1 : 0;
+                continue;
+            }
+            final RiseSetType sunType;
+            switch (type)
+            {
+                case CIVIL_DUSK: sunType = RiseSetType.CIVIL_DUSK; ++twilight; break;
+                case CIVIL_DAWN: sunType = RiseSetType.CIVIL_DAWN; ++twilight; break;
+                case ASTRO_DUSK: sunType = RiseSetType.ASTRO_DUSK; ++twilight; break;
+                case RISE:
+                case SET:        fail("sun " + type + " during the night"); continue;
+                default:         continue;
+            }
+            assertEvent(e, new RiseSet()
+            {
+                @Override
+                public Calendar calc(GregorianCalendar day)
+                {
+                    return Astro.calcRiseSet_sun(LON, LAT, day, sunType);
+                }
+            });
+        }
+        // the star rises during the day
+        assertEquals(0, rise);
+        assertEquals(1, set);
+        assertEquals(1, culmination);
+        assertEquals(3, twilight);
+    }
+
+    @Test
+    public void polar()
+    {
+        // no civil dusk at midsummer
+        GregorianCalendar time = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        time.set(2020, Calendar.JUNE, 21, 22, 0, 0);
+        NightEvents nightEvents = new NightEvents(time, 78.2, 15.6);
+        nightEvents.addSun("sun");
+        nightEvents.addStar("star", 5.2, 20.4);
+        assertTrue(nightEvents.getEvents().isEmpty());
+
+        // the sun is below the civil twilight the whole day at midwinter
+        time.set(2020, Calendar.DECEMBER, 21, 22, 0, 0);
+        nightEvents = new NightEvents(time, 78.2, 15.6);
+        nightEvents.addSun("sun");
+        nightEvents.addStar("star", 5.2, 20.4);
+        int twilight = 0;
+        int culmination = 0;
+        for (NightEvents.Event e : nightEvents.getEvents())
+        {
+            if (e.getName().equals("star"))
+            {
+                assertEquals(NightEvents.Type.CULMINATION, e.getType());
+                ++culmination;
+            }
+            else
+            {
+                // nautical and astronomical twilight
+                assertNotEquals(NightEvents.Type.CIVIL_DUSK, e.getType());
+                assertNotEquals(NightEvents.Type.CIVIL_DAWN, e.getType());
+                ++twilight;
+            }
+        }
+        assertEquals(1, culmination);
+        assertEquals(4, twilight);
+    }
+
+    @Test
+    public void circumpolar()
+    {
+        GregorianCalendar time = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        time.set(2020, Calendar.MARCH, 1, 20, 0, 0);
+        NightEvents nightEvents = new NightEvents(time, LAT, LON);
+        nightEvents.addStar("polaris", 2.53, 89.26);
+        nightEvents.addStar("below", 6.75, -60);
+        List<NightEvents.Event> events = nightEvents.getEvents();
+        assertEquals(1, events.size());
+        assertEquals("polaris", events.get(0).getName());
+        assertEquals(NightEvents.Type.CULMINATION, events.get(0).getType());
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2020 Timo Engel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.tengel.planisphere;
+
+import org.junit.Test;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import static org.junit.Assert.*;
+
+public class RiseSetCacheTest
+{
+    private int mCalls = 0;
+
+    private String get(RiseSetCache cache, final GregorianCalendar time, double latitude,
+                       boolean localTime)
+    {
+        return cache.get("star 1", "rise", time, latitude, 9.49, localTime,
+                         new RiseSetCache.Calculator()
+        {
+            @Override
+            public Calendar calc()
+            {
+                ++mCalls;
+                return Astro.calcRiseSet_star(9.49, 51.31, time, 5.2, 20.4, true);
+            }
+        });
+    }
+
+    @Test
+    public void cache()
+    {
+        TimeZone defaultZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("Europe/Berlin"));
+        try
+        {
+            RiseSetCache cache = new RiseSetCache();
+            GregorianCalendar time = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+            time.set(2020, Calendar.MARCH, 1, 1, 0, 0);
+            Calendar expected = Astro.calcRiseSet_star(9.49, 51.31, time, 5.2, 20.4, true);
+            String utc = get(cache, time, 51.31, false);
+            assertEquals(Astro.formatCal(expected), utc);
+            assertEquals(1, mCalls);
+
+            // same UTC day and location
+            time.set(Calendar.HOUR_OF_DAY, 23);
+            assertEquals(utc, get(cache, time, 51.312, false));
+            expected.setTimeZone(TimeZone.getDefault());
+            assertEquals(Astro.formatCal(expected), get(cache, time, 51.31, true));
+            assertEquals(1, mCalls);
+
+            // next day and other location
+            time.add(Calendar.HOUR_OF_DAY, 2);
+            assertNotEquals(utc, get(cache, time, 51.31, false));
+            assertEquals(2, mCalls);
+            get(cache, time, 52.31, false);
+            assertEquals(3, mCalls);
+        }
+        finally
+        {
+            TimeZone.setDefault(defaultZone);
+        }
+    }
+}
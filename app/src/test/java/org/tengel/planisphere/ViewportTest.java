@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2020 Timo Engel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.tengel.planisphere;
+
+import org.junit.Test;
+import java.util.Random;
+import static org.junit.Assert.*;
+
+public class ViewportTest
+{
+    private static final float W = 1080;
+    private static final float H = 1920;
+
+    /**
+     * Projects random horizontal coordinates like DrawArea.horizontal2area()
+     * and checks that no point inside of the rectangle is culled. Returns the
+     * number of culled points.
+     */
+    private static int checkCulling(double scale, double scrollX, double scrollY)
+    {
+        double hPixel = (W - 20) * scale / 2.0 / 90.0;
+        double centerX = W / 2.0 - scrollX;
+        double centerY = H / 2.0 - scrollY;
+        Viewport viewport = new Viewport();
+        viewport.set(0, 0, W, H, 0, centerX, centerY, hPixel);
+
+        Random random = new Random(42);
+        int culled = 0;
+        for (int i = 0; i < 100000; ++i)
+        {
+            double az = random.nextDouble() * 360;
+            double ele = random.nextDouble() * 180 - 90;
+            double r = (90 - ele) * hPixel;
+            float x = (float) (centerX + Math.sin(Math.toRadians(az)) * r);
+            float y = (float) (centerY + Math.cos(Math.toRadians(az)) * r);
+            boolean isInside = x >= 0 && x <= W && y >= 0 && y <= H;
+            assertEquals(isInside, viewport.contains(x, y));
+            if (!viewport.contains(az, ele))
+            {
+                assertFalse(isInside);
+                ++culled;
+            }
+        }
+        return culled;
+    }
+
+    @Test
+    public void contains()
+    {
+        // zenith in the view
+        checkCulling(1, 0, 0);
+        checkCulling(10, 100, -300);
+        // zenith outside of the view
+        int culled = checkCulling(20, 9000, 4000);
+        assertTrue(culled > 99000);
+        culled = checkCulling(100, -40000, -40000);
+        assertTrue(culled > 99000);
+    }
+
+    @Test
+    public void outcode()
+    {
+        Viewport viewport = new Viewport();
+        viewport.set(0, 0, W, H, 10, W / 2.0, H / 2.0, 1);
+        assertEquals(0, viewport.outcode(-10, H + 10));
+        assertEquals(Viewport.LEFT, viewport.outcode(-11, 0));
+        assertEquals(Viewport.RIGHT | Viewport.BOTTOM, viewport.outcode(W + 11, H + 11));
+        assertEquals(Viewport.TOP, viewport.outcode(W, -11));
+    }
+}